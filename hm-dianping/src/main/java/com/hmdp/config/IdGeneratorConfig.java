@@ -0,0 +1,21 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.SnowflakeIdWorker;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+@Configuration
+public class IdGeneratorConfig {
+
+    //hmdp.id.generator=snowflake时,注入IdGenerator得到雪花算法实现,否则得到RedisIdWorker
+    //需要固定使用某种实现时直接注入具体类型
+    @Bean(initMethod = "init", destroyMethod = "destroy")
+    @Primary
+    @ConditionalOnProperty(name = "hmdp.id.generator", havingValue = "snowflake")
+    public SnowflakeIdWorker snowflakeIdWorker(StringRedisTemplate stringRedisTemplate) {
+        return new SnowflakeIdWorker(stringRedisTemplate);
+    }
+}
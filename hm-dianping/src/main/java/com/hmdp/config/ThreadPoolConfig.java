@@ -0,0 +1,27 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.MonitoredThreadPoolExecutor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ThreadPoolConfig {
+
+    //缓存重建线程池,所有缓存共用
+    @Bean(destroyMethod = "shutdown")
+    public MonitoredThreadPoolExecutor cacheRebuildExecutor() {
+        return new MonitoredThreadPoolExecutor("cache-rebuild", 10, 10, 1000);
+    }
+
+    //笔记推送到粉丝收件箱的线程池
+    @Bean(destroyMethod = "shutdown")
+    public MonitoredThreadPoolExecutor feedFanoutExecutor() {
+        return new MonitoredThreadPoolExecutor("feed-fanout", 4, 4, 10000);
+    }
+
+    //查询笔记详情时并行查询作者和店铺的线程池
+    @Bean(destroyMethod = "shutdown")
+    public MonitoredThreadPoolExecutor blogDetailExecutor() {
+        return new MonitoredThreadPoolExecutor("blog-detail", 16, 16, 1000);
+    }
+}
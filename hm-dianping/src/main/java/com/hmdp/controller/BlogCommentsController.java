@@ -1,9 +1,12 @@
 package com.hmdp.controller;
 
 
-import org.springframework.web.bind.annotation.RequestMapping;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.BlogComments;
+import com.hmdp.service.IBlogCommentsService;
+import org.springframework.web.bind.annotation.*;
 
-import org.springframework.web.bind.annotation.RestController;
+import javax.annotation.Resource;
 
 /**
  * <p>
@@ -17,4 +20,25 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/blog-comments")
 public class BlogCommentsController {
 
+    @Resource
+    private IBlogCommentsService blogCommentsService;
+
+    @PostMapping
+    public Result saveComment(@RequestBody BlogComments comment) {
+        return blogCommentsService.saveComment(comment);
+    }
+
+    /**
+     * 按时间倒序滚动分页查询笔记的评论
+     * @param lastTime 上一页最后一条评论的创建时间戳,第一页不传
+     * @param lastId 上一页最后一条评论的id,第一页不传
+     * @return 评论列表和下一页的游标
+     */
+    @GetMapping("/of/blog/{id}")
+    public Result queryComments(
+            @PathVariable("id") Long blogId,
+            @RequestParam(value = "lastTime", required = false) Long lastTime,
+            @RequestParam(value = "lastId", required = false) Long lastId) {
+        return blogCommentsService.queryComments(blogId, lastTime, lastId);
+    }
 }
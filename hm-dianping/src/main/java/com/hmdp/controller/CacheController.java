@@ -0,0 +1,50 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheClient;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存运行状态
+ * </p>
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    /**
+     * 查询缓存运行状态,包括本地缓存命中率和重建线程池状态
+     * @return 运行状态
+     */
+    @GetMapping("/stats")
+    public Result stats() {
+        return Result.ok(cacheClient.getStats());
+    }
+
+    /**
+     * 查询布隆过滤器状态,包括位数组大小、哈希函数个数、已插入数量和当前误判率
+     * @return 每个key前缀的布隆过滤器状态
+     */
+    @GetMapping("/bloom")
+    public Result bloomStats() {
+        return Result.ok(cacheClient.getBloomFilterStats());
+    }
+
+    /**
+     * 查询当前的热点key,热点key的数据已复制到各节点的本地热点缓存
+     * @return 热点key及窗口内估算的访问次数
+     */
+    @GetMapping("/hot-keys")
+    public Result hotKeys() {
+        return Result.ok(cacheClient.getHotKeys());
+    }
+}
@@ -67,6 +67,20 @@ public class UserController {
         return Result.ok(user);
     }
 
+    @PostMapping("/sign")
+    public Result sign(){
+        return userService.sign();
+    }
+
+    /**
+     * 查询截至今天本月连续签到的天数
+     * @return 连续签到天数,今天没有签到为0
+     */
+    @GetMapping("/sign/count")
+    public Result signCount(){
+        return userService.signCount();
+    }
+
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId){
         // 查询详情
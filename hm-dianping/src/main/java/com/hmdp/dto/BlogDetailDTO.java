@@ -0,0 +1,14 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import lombok.Data;
+
+@Data
+public class BlogDetailDTO {
+    private Blog blog;
+    private UserDTO user;
+    private Shop shop;
+    //当前用户是否点赞过,每次请求单独查询,不缓存
+    private Boolean isLike;
+}
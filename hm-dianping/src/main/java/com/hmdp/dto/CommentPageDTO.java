@@ -0,0 +1,14 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.BlogComments;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class CommentPageDTO {
+    private List<BlogComments> list;
+    //本页最后一条评论的创建时间戳和id,作为下一页的游标,没有下一页时为空
+    private Long lastTime;
+    private Long lastId;
+}
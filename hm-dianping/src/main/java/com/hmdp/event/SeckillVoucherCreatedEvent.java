@@ -0,0 +1,19 @@
+package com.hmdp.event;
+
+import com.hmdp.entity.SeckillVoucher;
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+/*
+* 秒杀券新增的事件,事务提交后再预热Redis,回滚时不会留下没有对应数据的库存
+* */
+@Getter
+public class SeckillVoucherCreatedEvent extends ApplicationEvent {
+
+    private final SeckillVoucher voucher;
+
+    public SeckillVoucherCreatedEvent(Object source, SeckillVoucher voucher) {
+        super(source);
+        this.voucher = voucher;
+    }
+}
@@ -0,0 +1,75 @@
+package com.hmdp.event;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+
+import static com.hmdp.utils.RedisConstants.SHOP_CHANGED_CHANNEL;
+
+/*
+* 把本节点的店铺修改事件广播给其他节点,各节点的本地店铺索引(名称搜索、空间索引)都能收到修改
+* 通知中带有发送节点的标识,本节点收到自己发出的通知时忽略,避免重复更新
+* */
+@Slf4j
+@Component
+public class ShopChangedBroadcaster implements MessageListener {
+
+    //本节点标识
+    private static final String NODE_ID = UUID.randomUUID().toString(true);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private ApplicationEventPublisher eventPublisher;
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SHOP_CHANGED_CHANNEL));
+    }
+
+    //本节点的修改事务提交后广播
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onShopChanged(ShopChangedEvent event) {
+        if (event.isRemote()) {
+            return;
+        }
+        JSONObject json = new JSONObject()
+                .set("node", NODE_ID)
+                .set("shop", event.getShop())
+                .set("old", event.getOld());
+        stringRedisTemplate.convertAndSend(SHOP_CHANGED_CHANNEL, json.toString());
+    }
+
+    //收到其他节点的修改,在本节点发布事件
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            JSONObject json = JSONUtil.parseObj(body);
+            if (NODE_ID.equals(json.getStr("node"))) {
+                return;
+            }
+            Shop shop = json.getBean("shop", Shop.class);
+            Shop old = json.getBean("old", Shop.class);
+            eventPublisher.publishEvent(new ShopChangedEvent(this, shop, old, true));
+        } catch (Exception e) {
+            log.error("店铺修改通知处理失败, body: {}", body, e);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.hmdp.event;
+
+import com.hmdp.entity.Shop;
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+/*
+* 店铺新增或修改的事件,事务提交后由各个店铺索引监听并更新
+* 本节点的事件提交后通过Redis广播给其他节点,其他节点收到后发布remote为true的事件
+* */
+@Getter
+public class ShopChangedEvent extends ApplicationEvent {
+
+    //修改后的店铺数据
+    private final Shop shop;
+    //修改前的店铺数据,新增时为null
+    private final Shop old;
+    //是否为其他节点广播过来的事件
+    private final boolean remote;
+
+    public ShopChangedEvent(Object source, Shop shop, Shop old) {
+        this(source, shop, old, false);
+    }
+
+    public ShopChangedEvent(Object source, Shop shop, Shop old, boolean remote) {
+        super(source);
+        this.shop = shop;
+        this.old = old;
+        this.remote = remote;
+    }
+}
@@ -1,8 +1,11 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -13,4 +16,21 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogService extends IService<Blog> {
 
+    Result saveBlog(Blog blog);
+
+    Result queryBlogOfFollow(Long max, Integer offset);
+
+    void fillBlogUsers(List<Blog> blogs);
+
+    Result likeBlog(Long id);
+
+    void fillBlogLiked(List<Blog> blogs);
+
+    Result queryBlogLikes(Long id);
+
+    Result queryHotBlog(Integer current);
+
+    Result queryBlogById(Long id);
+
+    Result updateBlog(Blog blog);
 }
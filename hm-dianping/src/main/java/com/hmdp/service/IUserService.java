@@ -3,9 +3,12 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -18,4 +21,10 @@ import javax.servlet.http.HttpSession;
 public interface IUserService extends IService<User> {
     Result sendCode(String phone, HttpSession session);
     Result login(LoginFormDTO loginForm, HttpSession session);
+
+    Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids);
+
+    Result sign();
+
+    Result signCount();
 }
@@ -1,11 +1,30 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.CommentPageDTO;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Blog;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IBlogService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +36,77 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IBlogService blogService;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Override
+    public Result saveComment(BlogComments comment) {
+        if (comment.getBlogId() == null || StrUtil.isBlank(comment.getContent())){
+            return Result.fail("评论内容不能为空!");
+        }
+        //1. 判断笔记是否存在
+        Blog blog = cacheClient.queryWithPassThrough(CACHE_BLOG_KEY, comment.getBlogId(), Blog.class,
+                blogService::getById, CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        if (blog == null){
+            return Result.fail("笔记不存在!");
+        }
+        //2. 保存评论,一级评论的parentId和answerId为0
+        comment.setId(null);
+        comment.setUserId(UserHolder.getUser().getId());
+        comment.setParentId(comment.getParentId() == null ? 0L : comment.getParentId());
+        comment.setAnswerId(comment.getAnswerId() == null ? 0L : comment.getAnswerId());
+        comment.setLiked(0);
+        comment.setStatus(false);
+        save(comment);
+        //3. 评论数的变化量先记录到Redis,定时批量写入数据库
+        stringRedisTemplate.opsForHash().increment(BLOG_COMMENTS_DELTA_KEY, comment.getBlogId().toString(), 1);
+        //4. 删除第一页评论的缓存
+        cacheClient.delete(CACHE_BLOG_COMMENTS_KEY + comment.getBlogId());
+        return Result.ok(comment.getId());
+    }
+
+    @Override
+    public Result queryComments(Long blogId, Long lastTime, Long lastId) {
+        //1. 第一页查询缓存,互斥锁重建避免热门笔记的缓存失效时大量请求查询数据库
+        if (lastTime == null || lastId == null){
+            CommentPageDTO page = cacheClient.queryWithMutex(CACHE_BLOG_COMMENTS_KEY, blogId, CommentPageDTO.class,
+                    id -> queryPage(id, null, null), CACHE_BLOG_COMMENTS_TTL, TimeUnit.MINUTES);
+            return Result.ok(page);
+        }
+        //2. 其它页按游标查询数据库
+        return Result.ok(queryPage(blogId, lastTime, lastId));
+    }
+
+    /*
+    * 按(create_time, id)倒序查询游标之后的一页评论,利用索引(blog_id, create_time, id)定位,与页数无关
+    * WHERE blog_id = ? AND (create_time < ? OR (create_time = ? AND id < ?)) ORDER BY create_time DESC, id DESC LIMIT ?
+    * */
+    private CommentPageDTO queryPage(Long blogId, Long lastTime, Long lastId) {
+        LocalDateTime time = lastTime == null ? null
+                : LocalDateTime.ofInstant(Instant.ofEpochMilli(lastTime), ZoneId.systemDefault());
+        //多查一条判断是否有下一页
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        List<BlogComments> comments = query()
+                .eq("blog_id", blogId)
+                .and(time != null, w -> w.lt("create_time", time)
+                        .or(o -> o.eq("create_time", time).lt("id", lastId)))
+                .orderByDesc("create_time", "id")
+                .last("limit " + (size + 1))
+                .list();
+        CommentPageDTO page = new CommentPageDTO();
+        if (comments.size() > size){
+            comments = new ArrayList<>(comments.subList(0, size));
+            BlogComments last = comments.get(size - 1);
+            page.setLastTime(last.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+            page.setLastId(last.getId());
+        }
+        page.setList(comments);
+        return page;
+    }
 }
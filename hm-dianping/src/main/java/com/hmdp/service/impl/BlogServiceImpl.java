@@ -1,11 +1,62 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.BlogDetailDTO;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
+import com.hmdp.entity.Follow;
+import com.hmdp.entity.Shop;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IFollowService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.MonitoredThreadPoolExecutor;
+import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
@@ -14,7 +65,493 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IUserService userService;
+
+    @Resource
+    private IFollowService followService;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    @Qualifier("feedFanoutExecutor")
+    private MonitoredThreadPoolExecutor feedFanoutExecutor;
+
+    @Resource
+    @Qualifier("blogDetailExecutor")
+    private MonitoredThreadPoolExecutor blogDetailExecutor;
+
+    //粉丝数达到该值的作者不再推送,由粉丝读取时拉取发件箱
+    @Value("${hmdp.feed.big-author-followers:10000}")
+    private int bigAuthorFollowers;
+    //收件箱和发件箱保留的最大笔记数
+    @Value("${hmdp.feed.max-size:1000}")
+    private int feedMaxSize;
+    //每批推送的粉丝数
+    @Value("${hmdp.feed.fanout-batch-size:1000}")
+    private int fanoutBatchSize;
+
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+    }
+    //点赞数、评论数写入数据库时每条SQL更新的笔记数
+    private static final int LIKED_FLUSH_BATCH = 500;
+    //启动时加载热门排行每次查询的笔记数
+    private static final int HOT_LOAD_BATCH = 10000;
+
+    @Override
+    public Result saveBlog(Blog blog) {
+        //1. 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        blog.setUserId(user.getId());
+        //2. 保存探店博文
+        if (!save(blog)){
+            return Result.fail("新增笔记失败");
+        }
+        //3. 加入热门排行
+        stringRedisTemplate.opsForZSet().add(BLOG_HOT_KEY, blog.getId().toString(), 0);
+        //4. 写入作者的发件箱,大V的粉丝读取时从发件箱拉取
+        long now = System.currentTimeMillis();
+        String outboxKey = FEED_OUTBOX_KEY + user.getId();
+        stringRedisTemplate.opsForZSet().add(outboxKey, blog.getId().toString(), now);
+        stringRedisTemplate.opsForZSet().removeRange(outboxKey, 0, -feedMaxSize - 1);
+        //5. 异步推送给粉丝,发布耗时与粉丝数量无关
+        Runnable task = () -> fanout(user.getId(), blog.getId(), now);
+        try {
+            feedFanoutExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            //线程池已满,由当前线程推送,保证粉丝能收到
+            log.warn("推送线程池已满,同步推送笔记, blogId: {}", blog.getId());
+            task.run();
+        }
+        //6. 返回id
+        return Result.ok(blog.getId());
+    }
+
+    //推送笔记到粉丝的收件箱,粉丝数达到阈值的作者标记为大V,不再推送,由粉丝读取时拉取
+    private void fanout(Long authorId, Long blogId, long time) {
+        try {
+            //1. 统计粉丝数 select count(*) from tb_follow where follow_user_id = ?
+            Integer followers = followService.query().eq("follow_user_id", authorId).count();
+            if (followers >= bigAuthorFollowers){
+                stringRedisTemplate.opsForSet().add(FEED_BIG_AUTHORS_KEY, authorId.toString());
+                return;
+            }
+            if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(FEED_BIG_AUTHORS_KEY, authorId.toString()))){
+                //曾经是大V,粉丝已经在读取时拉取发件箱
+                return;
+            }
+            //2. 按id分批查询粉丝,每批pipeline推送一次,并裁剪收件箱
+            byte[] member = blogId.toString().getBytes(StandardCharsets.UTF_8);
+            long lastId = 0;
+            List<Follow> follows;
+            do {
+                follows = followService.query()
+                        .select("id", "user_id")
+                        .eq("follow_user_id", authorId)
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("limit " + fanoutBatchSize)
+                        .list();
+                List<Follow> batch = follows;
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (Follow follow : batch) {
+                        byte[] key = (FEED_KEY + follow.getUserId()).getBytes(StandardCharsets.UTF_8);
+                        connection.zAdd(key, time, member);
+                        connection.zRemRange(key, 0, -feedMaxSize - 1);
+                    }
+                    return null;
+                });
+                if (!follows.isEmpty()){
+                    lastId = follows.get(follows.size() - 1).getId();
+                }
+            } while (follows.size() >= fanoutBatchSize);
+        } catch (Exception e) {
+            log.error("推送笔记失败, authorId: {}, blogId: {}", authorId, blogId, e);
+        }
+    }
+
+    @Override
+    public Result queryBlogOfFollow(Long max, Integer offset) {
+        //1. 获取当前用户
+        Long userId = UserHolder.getUser().getId();
+        //2. 需要读取的有序集合: 自己的收件箱,以及关注的大V的发件箱
+        List<String> keys = new ArrayList<>();
+        keys.add(FEED_KEY + userId);
+        for (Long authorId : followService.queryFollowIn(userId, FEED_BIG_AUTHORS_KEY)) {
+            keys.add(FEED_OUTBOX_KEY + authorId);
+        }
+        //3. pipeline查询每个集合中不大于max的前offset + pageSize个元素
+        //ZREVRANGEBYSCORE key max 0 WITHSCORES LIMIT 0 count
+        int pageSize = SystemConstants.DEFAULT_PAGE_SIZE;
+        long count = offset + pageSize;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.zRevRangeByScoreWithScores(key.getBytes(StandardCharsets.UTF_8),
+                        RedisZSetCommands.Range.range().gte(0).lte(max),
+                        RedisZSetCommands.Limit.limit().offset(0).count((int) count));
+            }
+            return null;
+        });
+        //4. 多路归并,按时间戳降序,跳过上一页已经返回的offset个
+        List<Long> ids = new ArrayList<>(pageSize);
+        long minTime = 0;
+        int os = 0;
+        int skipped = 0;
+        Set<String> seen = new HashSet<>();
+        PriorityQueue<FeedCursor> queue = new PriorityQueue<>();
+        for (Object result : results) {
+            FeedCursor cursor = FeedCursor.of(result);
+            if (cursor != null){
+                queue.add(cursor);
+            }
+        }
+        while (!queue.isEmpty() && ids.size() < pageSize){
+            FeedCursor cursor = queue.poll();
+            ZSetOperations.TypedTuple<String> tuple = cursor.current;
+            if (cursor.next()){
+                queue.add(cursor);
+            }
+            //同一篇笔记可能同时在收件箱和发件箱中
+            if (!seen.add(tuple.getValue())){
+                continue;
+            }
+            long time = tuple.getScore().longValue();
+            if (time == max && skipped < offset){
+                skipped++;
+                continue;
+            }
+            ids.add(Long.valueOf(tuple.getValue()));
+            //记录与最小时间戳相同的元素个数
+            if (time == minTime){
+                os++;
+            } else {
+                minTime = time;
+                os = 1;
+            }
+        }
+        //5. 非空判断
+        if (ids.isEmpty()){
+            return Result.ok();
+        }
+        //整页的时间戳都与上一页的最小时间戳相同,需要累加上一页的offset
+        if (minTime == max){
+            os += offset;
+        }
+        //6. 根据id查询blog,保持时间顺序
+        String idStr = StrUtil.join(",", ids);
+        List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+        fillBlogUsers(blogs);
+        fillBlogLiked(blogs);
+        //7. 封装并返回
+        ScrollResult r = new ScrollResult();
+        r.setList(blogs);
+        r.setOffset(os);
+        r.setMinTime(minTime);
+        return Result.ok(r);
+    }
+
+    //多路归并时一个有序集合的读取位置
+    private static final class FeedCursor implements Comparable<FeedCursor> {
+        private final Iterator<ZSetOperations.TypedTuple<String>> iterator;
+        private ZSetOperations.TypedTuple<String> current;
+
+        private FeedCursor(Iterator<ZSetOperations.TypedTuple<String>> iterator) {
+            this.iterator = iterator;
+            this.current = iterator.next();
+        }
+
+        @SuppressWarnings("unchecked")
+        private static FeedCursor of(Object result) {
+            if (!(result instanceof Set) || ((Set<?>) result).isEmpty()){
+                return null;
+            }
+            return new FeedCursor(((Set<ZSetOperations.TypedTuple<String>>) result).iterator());
+        }
+
+        private boolean next() {
+            if (!iterator.hasNext()){
+                return false;
+            }
+            current = iterator.next();
+            return true;
+        }
+
+        @Override
+        public int compareTo(FeedCursor o) {
+            int c = Double.compare(o.current.getScore(), current.getScore());
+            if (c != 0){
+                return c;
+            }
+            //与ZREVRANGEBYSCORE一致,分数相同时按成员的字典序降序
+            return o.current.getValue().compareTo(current.getValue());
+        }
+    }
+
+    @Override
+    public Result likeBlog(Long id) {
+        //1. 获取登录用户
+        Long userId = UserHolder.getUser().getId();
+        //2. 点赞或取消点赞,点赞数的变化量由定时任务批量写入数据库
+        Long result = stringRedisTemplate.execute(
+                LIKE_SCRIPT,
+                Arrays.asList(BLOG_LIKED_KEY + id, BLOG_LIKED_DELTA_KEY, BLOG_HOT_KEY),
+                userId.toString(), String.valueOf(System.currentTimeMillis()), id.toString()
+        );
+        return Result.ok(result != null && result == 1);
+    }
+
+    //批量判断当前用户是否点赞过笔记,未登录时不判断
+    @Override
+    public void fillBlogLiked(List<Blog> blogs) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null || blogs.isEmpty()){
+            return;
+        }
+        byte[] member = user.getId().toString().getBytes(StandardCharsets.UTF_8);
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Blog blog : blogs) {
+                connection.zScore((BLOG_LIKED_KEY + blog.getId()).getBytes(StandardCharsets.UTF_8), member);
+            }
+            return null;
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
+
+    @Override
+    public Result queryBlogLikes(Long id) {
+        //1. 查询最早点赞的top5用户 zrange key 0 4
+        Set<String> top = stringRedisTemplate.opsForZSet()
+                .range(BLOG_LIKED_KEY + id, 0, SystemConstants.BLOG_LIKES_TOP_SIZE - 1);
+        if (top == null || top.isEmpty()){
+            return Result.ok(Collections.emptyList());
+        }
+        //2. 解析出用户id,批量查询用户,保持点赞时间的顺序
+        List<Long> ids = top.stream().map(Long::valueOf).collect(Collectors.toList());
+        List<UserDTO> users = new ArrayList<>(userService.queryUserDTOs(ids).values());
+        //3. 返回
+        return Result.ok(users);
+    }
+
+    @Override
+    public Result queryHotBlog(Integer current) {
+        //1. 从热门排行中查询当前页的笔记id和点赞数 ZREVRANGE blog:hot start end WITHSCORES
+        long start = (long) (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                .reverseRangeWithScores(BLOG_HOT_KEY, start, start + SystemConstants.MAX_PAGE_SIZE - 1);
+        if (tuples == null || tuples.isEmpty()){
+            return Result.ok(Collections.emptyList());
+        }
+        Map<Long, Integer> likedMap = new LinkedHashMap<>();
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            likedMap.put(Long.valueOf(tuple.getValue()), tuple.getScore().intValue());
+        }
+        //2. 批量查询笔记,缓存的笔记是共享的,复制后再填充作者、点赞数和是否点赞
+        Map<Long, Blog> blogMap = cacheClient.queryBatchWithPassThrough(CACHE_BLOG_KEY, likedMap.keySet(), Blog.class,
+                ids -> listByIds(ids).stream().collect(Collectors.toMap(Blog::getId, blog -> blog)),
+                CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        List<Blog> blogs = new ArrayList<>(blogMap.size());
+        likedMap.forEach((id, liked) -> {
+            Blog blog = blogMap.get(id);
+            if (blog != null) {
+                blogs.add(BeanUtil.copyProperties(blog, Blog.class).setLiked(liked));
+            }
+        });
+        //3. 查询作者和当前用户是否点赞
+        fillBlogUsers(blogs);
+        fillBlogLiked(blogs);
+        return Result.ok(blogs);
+    }
+
+    @Override
+    public Result queryBlogById(Long id) {
+        //1. 查询缓存的笔记,只缓存笔记本身,作者和店铺每次从各自的缓存中查询,修改后不会返回旧数据
+        Blog cached = cacheClient.queryWithPassThrough(CACHE_BLOG_KEY, id, Blog.class, this::getById, CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        if (cached == null){
+            return Result.fail("笔记不存在!");
+        }
+        //2. 并行查询作者和店铺,耗时接近两者中较慢的一个
+        CompletableFuture<UserDTO> authorFuture = supplyAsync(
+                () -> userService.queryUserDTOs(Collections.singletonList(cached.getUserId())).get(cached.getUserId()));
+        CompletableFuture<Shop> shopFuture = cached.getShopId() == null
+                ? CompletableFuture.completedFuture(null)
+                : supplyAsync(() -> cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, cached.getShopId(), Shop.class,
+                        shopService::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES));
+        //3. 查询最新的点赞数和当前用户是否点赞 ZSCORE blog:hot id, ZSCORE blog:liked:id userId
+        UserDTO user = UserHolder.getUser();
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.zScore(BLOG_HOT_KEY.getBytes(StandardCharsets.UTF_8), id.toString().getBytes(StandardCharsets.UTF_8));
+            if (user != null){
+                connection.zScore((BLOG_LIKED_KEY + id).getBytes(StandardCharsets.UTF_8),
+                        user.getId().toString().getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        //4. 缓存的笔记是共享的,复制后再填充
+        Blog blog = BeanUtil.copyProperties(cached, Blog.class);
+        if (scores.get(0) != null){
+            blog.setLiked(((Double) scores.get(0)).intValue());
+        }
+        BlogDetailDTO detail = new BlogDetailDTO();
+        detail.setBlog(blog);
+        detail.setUser(authorFuture.join());
+        detail.setShop(shopFuture.join());
+        detail.setIsLike(user != null && scores.get(1) != null);
+        return Result.ok(detail);
+    }
+
+    //线程池已满时由当前线程查询
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, blogDetailExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(supplier.get());
+        }
+    }
+
+    @Override
+    public Result updateBlog(Blog blog) {
+        Long id = blog.getId();
+        if (id == null){
+            return Result.fail("笔记id不能为空");
+        }
+        if (blog.getTitle() == null && blog.getContent() == null && blog.getImages() == null && blog.getShopId() == null){
+            return Result.fail("没有需要修改的内容");
+        }
+        //1. 只能修改自己的笔记,只更新可编辑的字段
+        UserDTO user = UserHolder.getUser();
+        Blog update = new Blog()
+                .setTitle(blog.getTitle())
+                .setContent(blog.getContent())
+                .setImages(blog.getImages())
+                .setShopId(blog.getShopId());
+        boolean success = update().eq("id", id).eq("user_id", user.getId()).update(update);
+        if (!success){
+            return Result.fail("笔记不存在!");
+        }
+        //2. 删除笔记的缓存,并通知所有节点删除本地缓存
+        cacheClient.delete(CACHE_BLOG_KEY + id);
+        return Result.ok();
+    }
+
+    //启动时热门排行不存在则从数据库加载
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadHotBlogs() {
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_KEY))){
+            return;
+        }
+        long lastId = 0;
+        List<Blog> blogs;
+        do {
+            blogs = query()
+                    .select("id", "liked")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + HOT_LOAD_BATCH)
+                    .list();
+            Set<ZSetOperations.TypedTuple<String>> tuples = blogs.stream()
+                    .map(blog -> new DefaultTypedTuple<>(blog.getId().toString(),
+                            blog.getLiked() == null ? 0D : blog.getLiked().doubleValue()))
+                    .collect(Collectors.toSet());
+            if (!tuples.isEmpty()){
+                stringRedisTemplate.opsForZSet().add(BLOG_HOT_KEY, tuples);
+                lastId = blogs.get(blogs.size() - 1).getId();
+            }
+        } while (blogs.size() >= HOT_LOAD_BATCH);
+    }
+
+    //定时把点赞数的变化量批量写入数据库,每篇笔记的多次点赞合并为一次更新
+    @Scheduled(fixedDelay = 5000)
+    public void flushLikedDeltas() {
+        flushDeltas("点赞数", "blog:liked-flush", BLOG_LIKED_DELTA_KEY, BLOG_LIKED_FLUSHING_KEY,
+                getBaseMapper()::updateLikedBatch);
+    }
+
+    //定时把评论数的变化量批量写入数据库,热门笔记的评论不会集中更新同一行
+    @Scheduled(fixedDelay = 5000)
+    public void flushCommentsDeltas() {
+        flushDeltas("评论数", "blog:comments-flush", BLOG_COMMENTS_DELTA_KEY, BLOG_COMMENTS_FLUSHING_KEY,
+                getBaseMapper()::updateCommentsBatch);
+    }
+
+    /*
+    * 把hash中各笔记计数的变化量分批写入数据库
+    * @param deltaKey 记录变化量的hash, field为笔记id
+    * @param flushingKey 写入期间变化量改名后的key
+    * @param updater 批量更新一批笔记的计数
+    * */
+    private void flushDeltas(String name, String lockName, String deltaKey, String flushingKey, Consumer<Map<Long, Long>> updater) {
+        //多个节点只有一个执行
+        ILock lock = new SimpleRedisLock(lockName, stringRedisTemplate);
+        if (!lock.tryLock(60)){
+            return;
+        }
+        try {
+            //1. 上次没有写完的变化量先写入,否则把变化量改名后写入,写入期间的变化记录到新的hash
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(flushingKey))){
+                if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(deltaKey))){
+                    return;
+                }
+                stringRedisTemplate.rename(deltaKey, flushingKey);
+            }
+            //2. 读取变化量,忽略为0的
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(flushingKey);
+            Map<Long, Long> deltas = new LinkedHashMap<>();
+            entries.forEach((id, delta) -> {
+                long value = Long.parseLong((String) delta);
+                if (value != 0){
+                    deltas.put(Long.valueOf((String) id), value);
+                }
+            });
+            //3. 分批更新 UPDATE tb_blog SET col = col + CASE id WHEN ? THEN ? ... END WHERE id IN (...)
+            //每批写入后删除对应的变化量,失败时下次只重试没有写入的部分
+            List<Long> ids = new ArrayList<>(deltas.keySet());
+            for (int i = 0; i < ids.size(); i += LIKED_FLUSH_BATCH) {
+                Map<Long, Long> batch = new LinkedHashMap<>();
+                for (Long id : ids.subList(i, Math.min(i + LIKED_FLUSH_BATCH, ids.size()))) {
+                    batch.put(id, deltas.get(id));
+                }
+                updater.accept(batch);
+                stringRedisTemplate.opsForHash().delete(flushingKey,
+                        batch.keySet().stream().map(String::valueOf).toArray());
+            }
+            //4. 全部写入,删除
+            stringRedisTemplate.delete(flushingKey);
+            log.debug("{}写入数据库, 笔记数: {}", name, deltas.size());
+        } catch (Exception e) {
+            log.error("{}写入数据库失败", name, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //批量查询笔记作者,填充昵称和头像
+    @Override
+    public void fillBlogUsers(List<Blog> blogs) {
+        Set<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toSet());
+        Map<Long, UserDTO> users = userService.queryUserDTOs(userIds);
+        blogs.forEach(blog -> {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        });
+    }
 }
@@ -1,11 +1,28 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
 import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.UserHolder;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.FOLLOWS_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOWS_TTL;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +34,104 @@ import org.springframework.stereotype.Service;
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
 
+    //关注集合已从数据库完整加载的标记,用户id从1开始,不会与关注的用户id冲突
+    //没有关注任何人时集合中只有该标记,避免每次都查询数据库
+    private static final String LOADED_MARK = "0";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IUserService userService;
+
+    @Override
+    public Result follow(Long followUserId, Boolean isFollow) {
+        //1. 获取登录用户
+        Long userId = UserHolder.getUser().getId();
+        if (userId.equals(followUserId)){
+            return Result.fail("不能关注自己");
+        }
+        String key = FOLLOWS_KEY + userId;
+        //2. 判断是关注还是取关
+        if (Boolean.TRUE.equals(isFollow)){
+            //3. 关注,已经关注过则直接返回
+            if (isFollowing(userId, followUserId)){
+                return Result.ok();
+            }
+            Follow follow = new Follow()
+                    .setUserId(userId)
+                    .setFollowUserId(followUserId);
+            //总是写入,集合未加载时没有加载标记,读取时仍会从数据库完整加载
+            if (save(follow)){
+                //把关注的用户id放入Redis的set集合 sadd userId followUserId
+                stringRedisTemplate.opsForSet().add(key, followUserId.toString());
+            }
+        } else {
+            //4. 取关,删除 delete from tb_follow where user_id = ? and follow_user_id = ?
+            boolean success = remove(new QueryWrapper<Follow>()
+                    .eq("user_id", userId).eq("follow_user_id", followUserId));
+            if (success){
+                //把关注的用户id从Redis的set集合中移除
+                stringRedisTemplate.opsForSet().remove(key, followUserId.toString());
+            }
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result isFollow(Long followUserId) {
+        Long userId = UserHolder.getUser().getId();
+        return Result.ok(isFollowing(userId, followUserId));
+    }
+
+    //查询是否关注 select count(*) from tb_follow where user_id = ? and follow_user_id = ?
+    private boolean isFollowing(Long userId, Long followUserId) {
+        Integer count = query().eq("user_id", userId).eq("follow_user_id", followUserId).count();
+        return count > 0;
+    }
+
+    @Override
+    public Result followCommons(Long id) {
+        //1. 求当前用户和目标用户关注列表的交集
+        Long userId = UserHolder.getUser().getId();
+        loadFollowsIfAbsent(userId);
+        loadFollowsIfAbsent(id);
+        Set<String> intersect = stringRedisTemplate.opsForSet().intersect(FOLLOWS_KEY + userId, FOLLOWS_KEY + id);
+        if (intersect == null){
+            return Result.ok(Collections.emptyList());
+        }
+        //2. 去掉加载标记,解析id,批量查询用户
+        intersect.remove(LOADED_MARK);
+        if (intersect.isEmpty()){
+            return Result.ok(Collections.emptyList());
+        }
+        List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
+        List<UserDTO> users = new ArrayList<>(userService.queryUserDTOs(ids).values());
+        return Result.ok(users);
+    }
+
+    //查询用户关注的人中同时属于key集合的用户
+    @Override
+    public Set<Long> queryFollowIn(Long userId, String key) {
+        loadFollowsIfAbsent(userId);
+        Set<String> intersect = stringRedisTemplate.opsForSet().intersect(FOLLOWS_KEY + userId, key);
+        if (intersect == null){
+            return Collections.emptySet();
+        }
+        return intersect.stream().filter(id -> !LOADED_MARK.equals(id)).map(Long::valueOf).collect(Collectors.toSet());
+    }
+
+    //关注集合没有加载标记时从数据库加载,与加载期间关注、取关写入的数据合并
+    //加载前读取的数据库可能包含加载期间刚取关的用户,设置过期时间,过期后重新加载
+    private void loadFollowsIfAbsent(Long userId) {
+        String key = FOLLOWS_KEY + userId;
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(key, LOADED_MARK))){
+            return;
+        }
+        List<String> members = query().select("follow_user_id").eq("user_id", userId).list()
+                .stream().map(follow -> follow.getFollowUserId().toString()).collect(Collectors.toList());
+        members.add(LOADED_MARK);
+        stringRedisTemplate.opsForSet().add(key, members.toArray(new String[0]));
+        stringRedisTemplate.expire(key, FOLLOWS_TTL, TimeUnit.MINUTES);
+    }
 }
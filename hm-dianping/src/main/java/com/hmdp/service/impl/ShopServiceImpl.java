@@ -1,29 +1,50 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSON;
 import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.event.ShopChangedEvent;
 import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
-import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopSearchIndex;
+import com.hmdp.utils.ShopSpatialIndex;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Metrics;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
 
 import javax.annotation.Resource;
 
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -33,18 +54,32 @@ import static com.hmdp.utils.RedisConstants.*;
  * </p>
  *
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
-    //逻辑过期方式解决缓存击穿问题的线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private ApplicationEventPublisher eventPublisher;
+
+    //附近店铺的最大搜索半径,米
+    @Value("${hmdp.shop.nearby-radius-meters:5000}")
+    private double nearbyRadiusMeters;
+    //为true时附近店铺只查询本地空间索引,否则查询Redis GEO,Redis不可用时查询本地空间索引
+    @Value("${hmdp.shop.local-spatial-index:false}")
+    private boolean localSpatialIndex;
+    @Resource
+    private ShopSpatialIndex shopSpatialIndex;
+    @Resource
+    private ShopSearchIndex shopSearchIndex;
+    //启动时加载GEO和本地索引每次查询的店铺个数
+    private static final int GEO_LOAD_BATCH = 10000;
+
     @Override
     public Result queryById(Long id) {
         //缓存穿透获取的shop
@@ -142,82 +177,43 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     }*/
 
     //根据店铺id获取店铺信息,使用互斥锁解决缓存击穿问题
+    //等待重建的线程不再休眠轮询Redis,由CacheClient通知唤醒
     public Shop queryWithMutex(Long id) {
-        String key = CACHE_SHOP_KEY + id;
-        //1. 从Redis中查询缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        //2. 判断是否存在
-        if (StrUtil.isNotBlank(shopJson)){
-            //3. 存在直接返回
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        //4. 判断是否为空值,解决缓存穿透问题
-        if (shopJson != null){
-            return null;
-        }
-        //5. 实现缓存重建
-        //5.1 获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        Shop shop = null;
-        try{
-            tryLock(lockKey);
-            boolean isLock = tryLock(lockKey);
-            //5.2 判断是否获取成功
-            while(!isLock){
-                //5.3 失败则休眠并重试
-                Thread.sleep(5);
-                isLock = tryLock(lockKey);
-            }
-            //5.4 成功则double check缓存是否存在
-            shopJson = stringRedisTemplate.opsForValue().get(key);
-            if (StrUtil.isNotBlank(shopJson)){
-                //存在直接返回
-                return JSONUtil.toBean(shopJson, Shop.class);
-            }
-            //6. 不存在根据id查询数据库
-            shop = getById(id);
-            //模拟重建延迟
-            //Thread.sleep(200);
-            //7. 不存在返回错误
-            if (shop == null){
-                //将空值写入redis,解决缓存穿透问题
-                stringRedisTemplate.opsForValue().set(key, "",CACHE_NULL_TTL, TimeUnit.MINUTES);
-                //返回错误信息
-                return null;
-            }
-            //8.存在写入redis
-            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e){
-            throw new RuntimeException(e);
-        }finally {
-            //9. 释放互斥锁
-            unLock(lockKey);
-        }
-        //8. 返回
-        return shop;
-    }
-
-    //获取锁,用于互斥锁方式解决缓存击穿
-    private boolean tryLock(String key){
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
-    }
-    //释放锁,用户互斥锁方式解决缓存击穿
-    private void unLock(String key){
-        stringRedisTemplate.delete(key);
+        return cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
     //用于向Redis写入带有逻辑过期时间的数据
-    public void saveShop2Redis(Long id, Long expireSeconds) throws InterruptedException {
+    //通过CacheClient写入,与queryWithLogicalExpire使用相同的序列化方式
+    public void saveShop2Redis(Long id, Long expireSeconds) {
         //1. 查询店铺数据
         Shop shop = getById(id);
-        Thread.sleep(200);
-        //2. 封装成逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-        //3. 写入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+        //2. 封装成逻辑过期写入redis
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS);
+    }
+
+    //启动时加载店铺的布隆过滤器,之后定期重建,清除已删除的店铺
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelay = 3600000, initialDelay = 3600000)
+    public void loadBloomFilter() {
+        cacheClient.loadBloomFilter(CACHE_SHOP_KEY, count(), (lastId, limit) -> query()
+                .select("id")
+                .gt("id", lastId)
+                .orderByAsc("id")
+                .last("limit " + limit)
+                .list()
+                .stream().map(Shop::getId).collect(Collectors.toList()));
+    }
+
+    @Override
+    public Result saveShop(Shop shop) {
+        //1. 写入数据库
+        save(shop);
+        //2. 加入布隆过滤器,并通知其他节点
+        cacheClient.addToBloomFilter(CACHE_SHOP_KEY, shop.getId());
+        //3. 通知各个店铺索引
+        eventPublisher.publishEvent(new ShopChangedEvent(this, shop, null));
+        //4. 返回店铺id
+        return Result.ok(shop.getId());
     }
 
     @Override
@@ -227,10 +223,176 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null){
             return Result.fail("店铺id不能为空");
         }
+        Shop old = getById(id);
+        if (old == null){
+            return Result.fail("店铺不存在");
+        }
         //1. 更新数据库
         updateById(shop);
-        //2. 删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        //2. 删除缓存,并通知所有节点删除本地缓存
+        cacheClient.delete(CACHE_SHOP_KEY + id);
+        //3. 通知各个店铺索引,只更新了部分字段,需要查询完整的店铺数据
+        eventPublisher.publishEvent(new ShopChangedEvent(this, getById(id), old));
         return Result.ok();
     }
+
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+        //1. 不需要按距离排序,按数据库分页查询
+        if (x == null || y == null){
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+            return Result.ok(page.getRecords());
+        }
+        //2. 计算分页参数
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
+        //3. 按照距离排序,只取前end个
+        Map<Long, Double> nearby = queryNearbyShopIds(typeId, x, y, end);
+        if (nearby.size() <= from){
+            return Result.ok(Collections.emptyList());
+        }
+        //4. 截取from ~ end的部分,记录店铺id和距离
+        List<Long> ids = new ArrayList<>(end - from);
+        List<Double> distances = new ArrayList<>(end - from);
+        int i = 0;
+        for (Map.Entry<Long, Double> entry : nearby.entrySet()) {
+            if (i++ >= from){
+                ids.add(entry.getKey());
+                distances.add(entry.getValue());
+            }
+        }
+        //5. 根据id批量查询店铺,缓存的店铺对象是共享的,复制后再设置距离
+        Map<Long, Shop> shopMap = cacheClient.queryBatchWithPassThrough(CACHE_SHOP_KEY, ids, Shop.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Shop::getId, s -> s)),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        List<Shop> shops = new ArrayList<>(ids.size());
+        for (int j = 0; j < ids.size(); j++) {
+            Shop shop = shopMap.get(ids.get(j));
+            if (shop != null){
+                shops.add(BeanUtil.copyProperties(shop, Shop.class).setDistance(distances.get(j)));
+            }
+        }
+        //6. 返回
+        return Result.ok(shops);
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        //1. 没有关键字,按数据库分页查询
+        if (StrUtil.isBlank(name)){
+            Page<Shop> page = query().page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            return Result.ok(page.getRecords());
+        }
+        //2. 从本地倒排索引中查询当前页的店铺id
+        List<Long> ids = shopSearchIndex.search(name, (current - 1) * SystemConstants.MAX_PAGE_SIZE, SystemConstants.MAX_PAGE_SIZE);
+        if (ids.isEmpty()){
+            return Result.ok(Collections.emptyList());
+        }
+        //3. 根据id批量查询店铺,保持相关度顺序
+        Map<Long, Shop> shopMap = cacheClient.queryBatchWithPassThrough(CACHE_SHOP_KEY, ids, Shop.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Shop::getId, s -> s)),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        return Result.ok(new ArrayList<>(shopMap.values()));
+    }
+
+    //启动时把店铺名称、商圈和地址加载到本地倒排索引中,之后定期重建,补上丢失的修改通知
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelay = 3600000, initialDelay = 3600000)
+    public void loadShopSearchIndex() {
+        shopSearchIndex.rebuild(consumer -> {
+            long lastId = 0;
+            List<Shop> shops;
+            do {
+                shops = query()
+                        .select("id", "name", "area", "address")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("limit " + GEO_LOAD_BATCH)
+                        .list();
+                shops.forEach(consumer);
+                if (!shops.isEmpty()){
+                    lastId = shops.get(shops.size() - 1).getId();
+                }
+            } while (shops.size() >= GEO_LOAD_BATCH);
+        });
+    }
+
+    //查询半径内最近的limit个店铺,返回店铺id -> 距离(米),按距离升序
+    private Map<Long, Double> queryNearbyShopIds(Integer typeId, Double x, Double y, int limit) {
+        if (!localSpatialIndex){
+            try {
+                // GEORADIUS key x y radius m WITHDIST ASC COUNT limit
+                GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().radius(
+                        SHOP_GEO_KEY + typeId,
+                        new Circle(new Point(x, y), new Distance(nearbyRadiusMeters, Metrics.METERS)),
+                        RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(limit)
+                );
+                Map<Long, Double> nearby = new LinkedHashMap<>();
+                if (results != null){
+                    for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : results) {
+                        nearby.put(Long.valueOf(result.getContent().getName()), result.getDistance().getValue());
+                    }
+                }
+                return nearby;
+            } catch (DataAccessException e) {
+                log.warn("查询Redis GEO失败,使用本地空间索引, typeId: {}", typeId, e);
+            }
+        }
+        return shopSpatialIndex.radius(typeId.longValue(), x, y, nearbyRadiusMeters, limit);
+    }
+
+    //启动时按类型把店铺坐标加载到Redis GEO和本地空间索引中
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadShopGeo() {
+        long lastId = 0;
+        List<Shop> shops;
+        do {
+            shops = query()
+                    .select("id", "type_id", "x", "y")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + GEO_LOAD_BATCH)
+                    .list();
+            for (Shop shop : shops) {
+                if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null){
+                    shopSpatialIndex.add(shop.getTypeId(), shop.getId(), shop.getX(), shop.getY());
+                }
+            }
+            //按类型分组,每个类型一次GEOADD
+            Map<Long, List<RedisGeoCommands.GeoLocation<String>>> locations = shops.stream()
+                    .filter(shop -> shop.getTypeId() != null && shop.getX() != null && shop.getY() != null)
+                    .collect(Collectors.groupingBy(Shop::getTypeId, Collectors.mapping(
+                            shop -> new RedisGeoCommands.GeoLocation<>(shop.getId().toString(), new Point(shop.getX(), shop.getY())),
+                            Collectors.toList())));
+            try {
+                locations.forEach((typeId, list) -> stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + typeId, list));
+            } catch (DataAccessException e) {
+                //Redis不可用时继续加载本地空间索引
+                log.error("加载店铺GEO失败", e);
+            }
+            if (!shops.isEmpty()){
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+        } while (shops.size() >= GEO_LOAD_BATCH);
+    }
+
+    //店铺新增或修改后同步GEO索引,类型变化时从原类型中删除
+    @TransactionalEventListener(fallbackExecution = true)
+    public void syncShopGeo(ShopChangedEvent event) {
+        //Redis中的GEO所有节点共用,由修改店铺的节点写入
+        if (event.isRemote()){
+            return;
+        }
+        Shop shop = event.getShop();
+        Shop old = event.getOld();
+        if (old != null && old.getTypeId() != null && !old.getTypeId().equals(shop.getTypeId())){
+            stringRedisTemplate.opsForGeo().remove(SHOP_GEO_KEY + old.getTypeId(), shop.getId().toString());
+        }
+        if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null){
+            stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + shop.getTypeId(),
+                    new Point(shop.getX(), shop.getY()), shop.getId().toString());
+        }
+    }
 }
@@ -1,25 +1,55 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
 import com.hmdp.dto.Result;
-import com.hmdp.entity.SeckillVoucher;
-import com.hmdp.entity.Voucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.utils.RedisIdWorker;
-import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.IdGenerator;
+import com.hmdp.utils.SeckillVoucherCache;
 import com.hmdp.utils.UserHolder;
-import lombok.val;
-import org.apache.tomcat.jni.Local;
-import org.springframework.aop.framework.AopContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -29,65 +59,340 @@ import java.time.LocalDateTime;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
     @Resource
     private ISeckillVoucherService iSeckillVoucherService;
     @Resource
-    private RedisIdWorker redisIdWorker;
+    private IdGenerator idGenerator;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillVoucherCache seckillVoucherCache;
+
+    //秒杀资格判断脚本
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+    }
+
+    //消费者组名称
+    private static final String ORDER_GROUP = "g1";
+    //每批最多处理的订单数
+    private static final int ORDER_BATCH_SIZE = 100;
+    //pending-list中消息空闲超过该时间,认为其消费者已宕机,由恢复线程认领
+    private static final Duration ORDER_CLAIM_IDLE = Duration.ofSeconds(60);
+    //消息投递超过该次数仍未确认,不再重试
+    private static final long ORDER_MAX_DELIVERY = 10;
+    //整批订单处理失败后,消费者暂停的时间
+    private static final long ORDER_FAILURE_BACKOFF_MILLIS = 1000;
+    //消费者名称前缀,同一台机器重启后沿用相同名称,可以直接处理自己的pending-list
+    private static final String CONSUMER_PREFIX = NetUtil.getLocalHostName() + "-";
+
+    //每个节点的消费者线程数
+    @Value("${hmdp.seckill.order-workers:4}")
+    private int orderWorkers;
+    //异步下单的线程池
+    private ExecutorService seckillOrderExecutor;
+    private volatile boolean running = true;
+    //代理对象,子线程中无法通过AopContext获取
+    @Lazy
+    @Resource
+    private IVoucherOrderService proxy;
+
+    //应用启动完成后再开始消费,此时代理对象已经可用
+    @EventListener(ApplicationReadyEvent.class)
+    public void startOrderHandlers() {
+        createOrderGroup();
+        seckillOrderExecutor = Executors.newFixedThreadPool(orderWorkers);
+        for (int i = 0; i < orderWorkers; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(CONSUMER_PREFIX + i));
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        if (seckillOrderExecutor != null) {
+            seckillOrderExecutor.shutdown();
+        }
+    }
+
+    //创建消费者组,stream不存在时一并创建 XGROUP CREATE stream.orders g1 0 MKSTREAM
+    private void createOrderGroup() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XGROUP",
+                    bytes("CREATE"), bytes(SECKILL_ORDER_STREAM_KEY), bytes(ORDER_GROUP), bytes("0"), bytes("MKSTREAM")));
+        } catch (Exception e) {
+            //消费者组已存在
+            if (!String.valueOf(e.getMessage()).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    //异步处理订单,每次从消息队列中取出一批订单写入数据库
+    private class VoucherOrderHandler implements Runnable {
+        private final String consumerName;
+
+        VoucherOrderHandler(String consumerName) {
+            this.consumerName = consumerName;
+        }
+
+        @Override
+        public void run() {
+            //1. 先处理上次未确认的消息
+            handlePendingList(consumerName);
+            while (running) {
+                try {
+                    //2. 获取消息队列中的订单 XREADGROUP GROUP g1 c1 COUNT 100 BLOCK 2000 STREAMS stream.orders >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(ORDER_GROUP, consumerName),
+                            StreamReadOptions.empty().count(ORDER_BATCH_SIZE).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(SECKILL_ORDER_STREAM_KEY, ReadOffset.lastConsumed())
+                    );
+                    //3. 获取失败说明没有消息,继续下一次循环
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+                    //4. 创建订单并ACK,整批都失败说明数据库不可用,等待一会再继续,失败的订单由恢复线程重试
+                    List<RecordId> failedIds = handleRecords(list);
+                    if (failedIds.size() == list.size() && !sleep(ORDER_FAILURE_BACKOFF_MILLIS)) {
+                        return;
+                    }
+                } catch (Exception e) {
+                    log.error("处理订单异常", e);
+                    handlePendingList(consumerName);
+                }
+            }
+        }
+    }
+
+    /*
+    * 处理指定消费者已读取但未确认的消息
+    * 从头遍历一遍pending-list,每批处理后从本批最后一条之后继续读取,处理失败的消息留在pending-list中,
+    * 空闲超时后由恢复线程认领重试,投递次数超过上限后放弃,不会在这里反复重试同一批消息
+    * */
+    private void handlePendingList(String consumerName) {
+        String lastId = "0";
+        int failures = 0;
+        while (running) {
+            try {
+                //1. 获取pending-list中lastId之后的订单 XREADGROUP GROUP g1 c1 COUNT 100 STREAMS stream.orders lastId
+                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(ORDER_GROUP, consumerName),
+                        StreamReadOptions.empty().count(ORDER_BATCH_SIZE),
+                        StreamOffset.create(SECKILL_ORDER_STREAM_KEY, ReadOffset.from(lastId))
+                );
+                //2. 获取失败说明pending-list已经遍历完,结束循环
+                if (list == null || list.isEmpty()) {
+                    break;
+                }
+                lastId = list.get(list.size() - 1).getId().getValue();
+                //3. 放弃多次投递仍失败的订单,其余的创建订单并ACK
+                List<MapRecord<String, Object, Object>> records = discardDeadLetters(consumerName, list);
+                if (records.isEmpty()) {
+                    continue;
+                }
+                List<RecordId> failedIds = handleRecords(records);
+                //4. 整批都失败,说明数据库不可用,暂不处理,等待超时后由恢复线程重新认领
+                if (failedIds.size() == records.size()) {
+                    log.warn("pending-list订单处理失败,稍后重试, consumer: {}", consumerName);
+                    break;
+                }
+            } catch (Exception e) {
+                log.error("处理pending-list订单异常", e);
+                //连续失败时暂不处理,等待超时后由恢复线程重新认领
+                if (++failures >= 3 || !sleep(20L * failures)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    //查询这批消息的投递次数,超过上限的记录后直接确认,返回其余的消息
+    private List<MapRecord<String, Object, Object>> discardDeadLetters(String consumerName, List<MapRecord<String, Object, Object>> list) {
+        PendingMessages pendingMessages = stringRedisTemplate.opsForStream().pending(SECKILL_ORDER_STREAM_KEY,
+                Consumer.from(ORDER_GROUP, consumerName),
+                Range.closed(list.get(0).getId().getValue(), list.get(list.size() - 1).getId().getValue()),
+                (long) list.size());
+        Set<RecordId> deadIds = new HashSet<>();
+        for (PendingMessage message : pendingMessages) {
+            if (message.getTotalDeliveryCount() > ORDER_MAX_DELIVERY) {
+                log.error("订单消息多次处理失败,放弃重试, id: {}, consumer: {}", message.getIdAsString(), consumerName);
+                deadIds.add(message.getId());
+            }
+        }
+        if (deadIds.isEmpty()) {
+            return list;
+        }
+        stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM_KEY, ORDER_GROUP, deadIds.toArray(new RecordId[0]));
+        return list.stream().filter(record -> !deadIds.contains(record.getId())).collect(Collectors.toList());
+    }
+
+    //创建订单并ACK,返回处理失败、没有确认的消息id
+    private List<RecordId> handleRecords(List<MapRecord<String, Object, Object>> list) {
+        List<VoucherOrder> voucherOrders = new ArrayList<>(list.size());
+        List<RecordId> recordIds = new ArrayList<>(list.size());
+        List<RecordId> failedIds = new ArrayList<>();
+        for (MapRecord<String, Object, Object> record : list) {
+            voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            recordIds.add(record.getId());
+        }
+        try {
+            //1. 整批写入数据库
+            proxy.createVoucherOrders(voucherOrders);
+        } catch (Exception e) {
+            //2. 整批失败时逐条写入,只确认成功的订单,失败的留在pending-list中等待重试
+            log.error("批量创建订单失败,改为逐条创建", e);
+            recordIds.clear();
+            for (int i = 0; i < voucherOrders.size(); i++) {
+                try {
+                    proxy.createVoucherOrder(voucherOrders.get(i));
+                    recordIds.add(list.get(i).getId());
+                } catch (Exception ex) {
+                    log.error("处理订单异常, orderId: {}", voucherOrders.get(i).getId(), ex);
+                    failedIds.add(list.get(i).getId());
+                }
+            }
+        }
+        //3. 事务提交后再ACK
+        if (!recordIds.isEmpty()) {
+            stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM_KEY, ORDER_GROUP,
+                    recordIds.toArray(new RecordId[0]));
+        }
+        return failedIds;
+    }
+
+    //返回false表示线程被中断
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    //认领已宕机消费者pending-list中的消息,交给本节点的恢复消费者处理
+    @Scheduled(fixedDelay = 30000)
+    public void recoverPendingOrders() {
+        if (!running || seckillOrderExecutor == null) {
+            return;
+        }
+        String recoveryConsumer = CONSUMER_PREFIX + "recovery";
+        //1. 查询pending-list XPENDING stream.orders g1 - + 100
+        PendingMessages pendingMessages = stringRedisTemplate.opsForStream()
+                .pending(SECKILL_ORDER_STREAM_KEY, ORDER_GROUP, Range.unbounded(), (long) ORDER_BATCH_SIZE);
+        List<RecordId> claimIds = new ArrayList<>();
+        for (PendingMessage message : pendingMessages) {
+            if (message.getElapsedTimeSinceLastDelivery().compareTo(ORDER_CLAIM_IDLE) < 0) {
+                continue;
+            }
+            //2. 多次投递仍失败的消息,记录后直接确认,避免无限重试
+            if (message.getTotalDeliveryCount() > ORDER_MAX_DELIVERY) {
+                log.error("订单消息多次处理失败,放弃重试, id: {}, consumer: {}", message.getIdAsString(), message.getConsumerName());
+                stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM_KEY, ORDER_GROUP, message.getId());
+                continue;
+            }
+            claimIds.add(message.getId());
+        }
+        if (claimIds.isEmpty()) {
+            return;
+        }
+        //3. 认领消息,min-idle-time保证多个节点只有一个能认领成功 XCLAIM stream.orders g1 recovery 60000 id...
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.xClaim(
+                bytes(SECKILL_ORDER_STREAM_KEY), ORDER_GROUP, recoveryConsumer,
+                RedisStreamCommands.XClaimOptions.minIdle(ORDER_CLAIM_IDLE).ids(claimIds.toArray(new RecordId[0]))));
+        //4. 处理认领到的消息
+        handlePendingList(recoveryConsumer);
+    }
 
     @Override
     public Result seckillVoucher(Long voucherId) {
-        //1. 查询优惠券
-        SeckillVoucher voucher = iSeckillVoucherService.getById(voucherId);
-        //2. 判断秒杀是否开始
-        if(voucher.getBeginTime().isAfter(LocalDateTime.now())){
+        //0. 本地预检,不访问数据库和Redis
+        //0.1 判断秒杀时间
+        SeckillVoucherCache.TimeWindow timeWindow = seckillVoucherCache.getTimeWindow(voucherId, iSeckillVoucherService::getById);
+        if (timeWindow == null) {
+            return Result.fail("优惠券不存在");
+        }
+        long now = System.currentTimeMillis() / 1000;
+        if (timeWindow.getBegin() > now) {
             return Result.fail("秒杀尚未开始");
         }
-        //3. 判断秒杀是否结束
-        if (voucher.getEndTime().isBefore(LocalDateTime.now())){
+        if (timeWindow.getEnd() < now) {
             return Result.fail("秒杀已经结束");
         }
-        //5. 判断库存是否充足
-        if (voucher.getStock() < 1){
-            //库存不足
+        //0.2 本地售罄标记,已售罄直接返回
+        if (seckillVoucherCache.isSoldOut(voucherId)) {
             return Result.fail("库存不足");
         }
         Long userId = UserHolder.getUser().getId();
-        //synchronized方式对用户id加锁,集群时会出现问题
-        /*synchronized (userId.toString().intern()){
-            //获取代理对象
-            IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
-            return proxy.createVoucherOrder(voucherId);
-        }*/
-        //使用Redis分时锁
-        //创建锁对象
-        SimpleRedisLock simpleRedisLock = new SimpleRedisLock("order:" + userId, stringRedisTemplate);
-        //获取锁
-        boolean isLock = simpleRedisLock.tryLock(1200);
-        if (!isLock){
-            return Result.fail("一个人只可下一单");
+        //1. 生成订单id
+        long orderId = idGenerator.nextId("order");
+        //2. 执行lua脚本,判断秒杀时间、库存和一人一单,有资格则发送订单到消息队列
+        Long result = stringRedisTemplate.execute(
+                SECKILL_SCRIPT,
+                Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_TIME_KEY + voucherId,
+                        SECKILL_ORDER_KEY + voucherId, SECKILL_ORDER_STREAM_KEY),
+                userId.toString(), String.valueOf(now),
+                String.valueOf(orderId), voucherId.toString()
+        );
+        //3. 判断结果是否为0
+        int r = result == null ? -1 : result.intValue();
+        if (r != 0) {
+            //3.1 库存不足,标记售罄并通知其他节点
+            if (r == 1) {
+                seckillVoucherCache.markSoldOut(voucherId);
+            }
+            //3.2 不为0,代表没有购买资格
+            return Result.fail(seckillFailMessage(r));
         }
-        try {
-            IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
-            return proxy.createVoucherOrder(voucherId);
-        }finally {
-            simpleRedisLock.unlock();
+        //4. 有购买资格,订单已进入消息队列,返回订单id
+        return Result.ok(orderId);
+    }
+
+    private static String seckillFailMessage(int r) {
+        switch (r) {
+            case 1:
+                return "库存不足";
+            case 2:
+                return "一个人只可下一单";
+            case 3:
+                return "秒杀尚未开始";
+            case 4:
+                return "秒杀已经结束";
+            case 5:
+                return "优惠券不存在";
+            case 6:
+                return "库存未就绪,请稍后再试";
+            default:
+                return "秒杀失败";
         }
     }
 
+    //异步线程中执行,不能再从UserHolder中获取用户
+    @Override
     @Transactional
-    public Result createVoucherOrder(long voucherId){
-        //4. 一人一单
-        Long userId = UserHolder.getUser().getId();
+    public void createVoucherOrder(VoucherOrder voucherOrder){
+        //1. 一人一单,Redis中已经判断过,这里兜底,同时保证消息重复投递时不会重复下单
+        Long userId = voucherOrder.getUserId();
+        Long voucherId = voucherOrder.getVoucherId();
         int count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
         if (count > 0) {
-            return Result.fail("用户已经购买过一次");
+            log.error("用户已经购买过一次, userId: {}, voucherId: {}", userId, voucherId);
+            return;
         }
-        //6. 扣减库存
+        //2. 扣减库存
         boolean success = iSeckillVoucherService.update()
                 .setSql("stock = stock - 1")
                 .eq("voucher_id", voucherId)
@@ -95,15 +400,57 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .update();
         if (!success) {
             //库存不足
-            return Result.fail("库存不足");
+            log.error("库存不足, voucherId: {}", voucherId);
+            return;
         }
-        //7. 创建订单
-        VoucherOrder voucherOrder = new VoucherOrder();
-        long orderId = redisIdWorker.nextId("order");
-        voucherOrder.setId(orderId);
-        voucherOrder.setUserId(userId);
-        voucherOrder.setVoucherId(voucherId);
+        //3. 创建订单
         save(voucherOrder);
-        return Result.ok(orderId);
+    }
+
+    //批量创建订单: 一次查询去重,每个优惠券一条扣减库存语句,一条多行insert
+    @Override
+    @Transactional
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        //1. 去重,过滤掉数据库中已存在的订单和批次内重复的订单
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> voucherIds = new HashSet<>();
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            userIds.add(voucherOrder.getUserId());
+            voucherIds.add(voucherOrder.getVoucherId());
+        }
+        Set<String> purchased = query().select("user_id", "voucher_id")
+                .in("user_id", userIds).in("voucher_id", voucherIds)
+                .list().stream()
+                .map(order -> order.getUserId() + ":" + order.getVoucherId())
+                .collect(Collectors.toSet());
+        List<VoucherOrder> newOrders = new ArrayList<>(voucherOrders.size());
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            if (purchased.add(voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId())) {
+                newOrders.add(voucherOrder);
+            } else {
+                log.error("用户已经购买过一次, userId: {}, voucherId: {}", voucherOrder.getUserId(), voucherOrder.getVoucherId());
+            }
+        }
+        if (newOrders.isEmpty()) {
+            return;
+        }
+        //2. 按优惠券汇总,每个优惠券扣减一次库存
+        Map<Long, Integer> countByVoucher = new HashMap<>();
+        for (VoucherOrder voucherOrder : newOrders) {
+            countByVoucher.merge(voucherOrder.getVoucherId(), 1, Integer::sum);
+        }
+        countByVoucher.forEach((voucherId, count) -> {
+            boolean success = iSeckillVoucherService.update()
+                    .setSql("stock = stock - " + count)
+                    .eq("voucher_id", voucherId)
+                    .ge("stock", count)
+                    .update();
+            if (!success) {
+                //Redis中已经扣过库存,数据库库存不足说明两边不一致,回滚后交给逐条下单处理
+                throw new IllegalStateException("库存不足, voucherId: " + voucherId + ", count: " + count);
+            }
+        });
+        //3. 多行insert创建订单
+        getBaseMapper().insertBatch(newOrders);
     }
 }
@@ -5,13 +5,26 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.event.SeckillVoucherCreatedEvent;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.SeckillVoucherCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
 
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_TIME_KEY;
 
 /**
  * <p>
@@ -21,11 +34,18 @@ import java.util.List;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> implements IVoucherService {
 
     @Resource
     private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private SeckillVoucherCache seckillVoucherCache;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private ApplicationEventPublisher eventPublisher;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -35,6 +55,31 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         return Result.ok(vouchers);
     }
 
+    //启动时预热未结束的秒杀券,秒杀请求不再需要查询数据库
+    @EventListener(ApplicationReadyEvent.class)
+    public void preloadSeckillVouchers() {
+        List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                .gt("end_time", LocalDateTime.now())
+                .list();
+        for (SeckillVoucher voucher : vouchers) {
+            seckillVoucherCache.warmUp(voucher);
+        }
+        log.debug("预热秒杀券完成, 数量: {}", vouchers.size());
+    }
+
+    //启动时加载秒杀券的布隆过滤器,之后定期重建
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelay = 3600000, initialDelay = 3600000)
+    public void loadBloomFilter() {
+        cacheClient.loadBloomFilter(SECKILL_TIME_KEY, seckillVoucherService.count(), (lastId, limit) -> seckillVoucherService.query()
+                .select("voucher_id")
+                .gt("voucher_id", lastId)
+                .orderByAsc("voucher_id")
+                .last("limit " + limit)
+                .list()
+                .stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList()));
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -47,5 +92,16 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
+        // 事务提交后再预热Redis
+        eventPublisher.publishEvent(new SeckillVoucherCreatedEvent(this, seckillVoucher));
+    }
+
+    @TransactionalEventListener
+    public void onSeckillVoucherCreated(SeckillVoucherCreatedEvent event) {
+        SeckillVoucher seckillVoucher = event.getVoucher();
+        // 加入布隆过滤器,并通知其他节点
+        cacheClient.addToBloomFilter(SECKILL_TIME_KEY, seckillVoucher.getVoucherId());
+        // 预热秒杀库存和秒杀时间到Redis,并通知各节点刷新本地缓存
+        seckillVoucherCache.addVoucher(seckillVoucher);
     }
 }
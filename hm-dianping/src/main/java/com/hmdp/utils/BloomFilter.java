@@ -0,0 +1,94 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+* 基于位数组的布隆过滤器,用于判断id是否可能存在,解决缓存穿透问题
+* 判断不存在时一定不存在,判断存在时有fpp的概率误判
+* */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    //位数组长度
+    private final long bitSize;
+    //哈希函数个数
+    private final int hashCount;
+    private final long expectedInsertions;
+    private final double fpp;
+    private final LongAdder insertions = new LongAdder();
+
+    /*
+    * @param expectedInsertions 预计插入的元素个数
+    * @param fpp 期望的误判率
+    * */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        this.expectedInsertions = Math.max(expectedInsertions, 1);
+        this.fpp = fpp;
+        //m = -n * ln(p) / (ln2)^2, k = m / n * ln2
+        long m = (long) Math.ceil(-this.expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bits = new AtomicLongArray((int) ((m + 63) >>> 6));
+        this.bitSize = (long) bits.length() << 6;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / this.expectedInsertions * Math.log(2)));
+    }
+
+    public void put(long value) {
+        long h1 = mix(value);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < hashCount; i++) {
+            long index = ((h1 + i * h2) & Long.MAX_VALUE) % bitSize;
+            setBit(index);
+        }
+        insertions.increment();
+    }
+
+    public boolean mightContain(long value) {
+        long h1 = mix(value);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < hashCount; i++) {
+            long index = ((h1 + i * h2) & Long.MAX_VALUE) % bitSize;
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setBit(long index) {
+        int i = (int) (index >>> 6);
+        long mask = 1L << index;
+        long old;
+        do {
+            old = bits.get(i);
+            if ((old & mask) != 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(i, old, old | mask));
+    }
+
+    //64位哈希混合函数(MurmurHash3 fmix64)
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public Map<String, Object> getStats() {
+        long n = insertions.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("expectedInsertions", expectedInsertions);
+        stats.put("insertions", n);
+        stats.put("fpp", fpp);
+        //当前的误判率 (1 - e^(-kn/m))^k
+        stats.put("currentFpp", Math.pow(1 - Math.exp(-(double) hashCount * n / bitSize), hashCount));
+        stats.put("bitSize", bitSize);
+        stats.put("hashCount", hashCount);
+        stats.put("memoryBytes", bitSize >>> 3);
+        return stats;
+    }
+}
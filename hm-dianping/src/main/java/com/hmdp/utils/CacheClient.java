@@ -1,62 +1,278 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
 @Component
 @Slf4j
-public class CacheClient {
+public class CacheClient implements MessageListener {
     private StringRedisTemplate stringRedisTemplate;
+    //缓存数据通过codec序列化为byte[]读写
+    private RedisTemplate<String, byte[]> byteRedisTemplate;
+    private CacheCodec codec;
+    private RedisMessageListenerContainer redisMessageListenerContainer;
 
-    //逻辑过期方式解决缓存击穿问题的线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    //缓存重建的线程池,所有缓存共用
+    private MonitoredThreadPoolExecutor cacheRebuildExecutor;
+    //本节点正在重建的key,只作为标记: 同一个key并发触发重建时只提交一个任务,其他调用方不等待,继续返回旧数据
+    private final Set<String> rebuilding = ConcurrentHashMap.newKeySet();
+    //提前重建的系数,越大越早重建
+    private final double refreshBeta;
+    private static final String LOCK_KEY_PREFIX = "lock:";
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate){
+    //互斥锁方式重建: 本节点正在加载的key,其他线程等待同一个future,不再轮询Redis
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> mutexLoads = new ConcurrentHashMap<>();
+    //互斥锁被其他节点持有时,等待其重建完成的通知
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> remoteRebuilds = new ConcurrentHashMap<>();
+    //等待重建的最长时间,超时后返回旧数据
+    private final long mutexWaitMillis;
+    //最近一次查询到的数据,重建超时时作为兜底,不随缓存删除而失效
+    private final Cache<String, Object> staleCache;
+
+    //热点key探测,热点key的数据复制到本地热点缓存,不再访问Redis
+    //只用于逻辑过期方式,其他方式已经有本地一级缓存
+    private final HotKeyDetector hotKeyDetector;
+    private final Cache<String, Object> hotCache;
+
+    //本地一级缓存,保存反序列化后的对象,Redis为二级缓存
+    //缓存的对象是共享的,调用方不能修改
+    private final Cache<String, Object> localCache;
+    //本地缓存中的空值标记,解决缓存穿透问题
+    private static final Object NULL_VALUE = new Object();
+    //Redis中的空值标记,解决缓存穿透问题
+    private static final byte[] EMPTY = new byte[0];
+
+    //key前缀 -> 布隆过滤器,过滤器判断不存在的id直接返回null,不再查询Redis和数据库
+    private final ConcurrentHashMap<String, BloomFilter> bloomFilters = new ConcurrentHashMap<>();
+    private final long bloomExpectedInsertions;
+    private final double bloomFpp;
+    //加载布隆过滤器时每次查询的id个数
+    private static final int BLOOM_LOAD_BATCH = 10000;
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate,
+                       RedisTemplate<String, byte[]> byteRedisTemplate,
+                       CacheCodec codec,
+                       RedisMessageListenerContainer redisMessageListenerContainer,
+                       @Qualifier("cacheRebuildExecutor") MonitoredThreadPoolExecutor cacheRebuildExecutor,
+                       HotKeyDetector hotKeyDetector,
+                       @Value("${hmdp.cache.hot.ttl-seconds:5}") long hotTtlSeconds,
+                       @Value("${hmdp.cache.local.maximum-size:10000}") long localMaximumSize,
+                       @Value("${hmdp.cache.local.ttl-seconds:30}") long localTtlSeconds,
+                       @Value("${hmdp.cache.refresh-beta:1.0}") double refreshBeta,
+                       @Value("${hmdp.cache.mutex-wait-millis:500}") long mutexWaitMillis,
+                       @Value("${hmdp.bloom.expected-insertions:100000}") long bloomExpectedInsertions,
+                       @Value("${hmdp.bloom.fpp:0.01}") double bloomFpp){
         this.stringRedisTemplate = stringRedisTemplate;
+        this.byteRedisTemplate = byteRedisTemplate;
+        this.codec = codec;
+        this.redisMessageListenerContainer = redisMessageListenerContainer;
+        this.cacheRebuildExecutor = cacheRebuildExecutor;
+        this.hotKeyDetector = hotKeyDetector;
+        this.hotCache = Caffeine.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(hotTtlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        this.refreshBeta = refreshBeta;
+        this.mutexWaitMillis = mutexWaitMillis;
+        this.bloomExpectedInsertions = bloomExpectedInsertions;
+        this.bloomFpp = bloomFpp;
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(localMaximumSize)
+                .expireAfterWrite(localTtlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        this.staleCache = Caffeine.newBuilder()
+                .maximumSize(localMaximumSize)
+                .expireAfterWrite(1, TimeUnit.HOURS)
+                .build();
+    }
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this,
+                Arrays.asList(new ChannelTopic(CACHE_INVALIDATE_CHANNEL), new ChannelTopic(CACHE_REBUILT_CHANNEL),
+                        new ChannelTopic(BLOOM_ADD_CHANNEL)));
+    }
+
+    //删除缓存,并通知所有节点删除本地缓存
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        localCache.invalidate(key);
+        hotCache.invalidate(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    //接收其他节点的失效通知删除本地缓存,重建完成通知唤醒等待的线程,新增数据的通知加入布隆过滤器
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (CACHE_INVALIDATE_CHANNEL.equals(channel)) {
+            localCache.invalidate(key);
+            hotCache.invalidate(key);
+            return;
+        }
+        if (CACHE_REBUILT_CHANNEL.equals(channel)) {
+            CompletableFuture<Void> rebuilt = remoteRebuilds.remove(key);
+            if (rebuilt != null) {
+                rebuilt.complete(null);
+            }
+            return;
+        }
+        //新增通知的内容为key前缀 + id
+        for (Map.Entry<String, BloomFilter> entry : bloomFilters.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                try {
+                    entry.getValue().put(Long.parseLong(key.substring(entry.getKey().length())));
+                } catch (NumberFormatException e) {
+                    log.error("布隆过滤器通知格式错误, key: {}", key);
+                }
+                return;
+            }
+        }
+    }
+
+    //分批加载全部id,构建布隆过滤器后替换旧的过滤器
+    //nextIds(lastId, limit)按id升序返回大于lastId的最多limit个id
+    public void loadBloomFilter(String keyPrefix, long count, BiFunction<Long, Integer, List<Long>> nextIds) {
+        //1. 按实际数量的2倍预留空间,给新增的数据留出余量
+        BloomFilter filter = new BloomFilter(Math.max(bloomExpectedInsertions, count * 2), bloomFpp);
+        //2. 分批查询id加入过滤器
+        long lastId = putAll(filter, 0L, nextIds);
+        //3. 替换旧的过滤器
+        bloomFilters.put(keyPrefix, filter);
+        //4. 加载期间新增的数据可能只通知到了旧的过滤器,补充加载一次
+        putAll(filter, lastId, nextIds);
+        log.debug("布隆过滤器加载完成, keyPrefix: {}, stats: {}", keyPrefix, filter.getStats());
+    }
+
+    private static long putAll(BloomFilter filter, long lastId, BiFunction<Long, Integer, List<Long>> nextIds) {
+        List<Long> ids;
+        do {
+            ids = nextIds.apply(lastId, BLOOM_LOAD_BATCH);
+            for (Long id : ids) {
+                filter.put(id);
+                lastId = Math.max(lastId, id);
+            }
+        } while (ids.size() >= BLOOM_LOAD_BATCH);
+        return lastId;
+    }
+
+    //新增数据后调用,加入布隆过滤器并通知其他节点
+    public void addToBloomFilter(String keyPrefix, Long id) {
+        BloomFilter filter = bloomFilters.get(keyPrefix);
+        if (filter == null) {
+            return;
+        }
+        filter.put(id);
+        stringRedisTemplate.convertAndSend(BLOOM_ADD_CHANNEL, keyPrefix + id);
+    }
+
+    //判断id是否可能存在,没有布隆过滤器或者id不是数字时都认为可能存在
+    public boolean mightExist(String keyPrefix, Object id) {
+        BloomFilter filter = bloomFilters.get(keyPrefix);
+        if (filter == null || !(id instanceof Number)) {
+            return true;
+        }
+        return filter.mightContain(((Number) id).longValue());
+    }
+
+    //布隆过滤器的运行状态
+    public Map<String, Object> getBloomFilterStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        bloomFilters.forEach((keyPrefix, filter) -> stats.put(keyPrefix, filter.getStats()));
+        return stats;
     }
 
     //向redis中添加带有过期时间的缓存
     public void set(String key, Object value, Long time, TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        byteRedisTemplate.opsForValue().set(key, codec.encode(value), time, unit);
     }
 
     //向redis中添加带有逻辑过期时间的缓存
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit){
+        setWithLogicalExpire(key, value, time, unit, null);
+    }
+
+    //向redis中添加带有逻辑过期时间的缓存,并记录重建耗时
+    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, Long delta){
         //设置逻辑过期
         RedisData redisData = new RedisData();
         redisData.setData(value);
         redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        redisData.setDelta(delta);
         //写入redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        byteRedisTemplate.opsForValue().set(key, codec.encodeLogical(redisData));
     }
 
     //根据指定的key查询缓存，并反序列化为指定类型，利用缓存空值的方式解决缓存穿透问题
     public <R, ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
+        //0. 记录访问次数,本地缓存已能承接热点key,这里只统计不使用热点缓存
+        hotKeyDetector.record(key);
+        //0.1 从本地缓存中查询
+        Object local = localCache.getIfPresent(key);
+        if (local != null){
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
+        //0.2 布隆过滤器判断不存在,直接返回
+        if (!mightExist(keyPrefix, id)){
+            return null;
+        }
         //1. 从Redis中查询缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
         //2. 判断是否有数据且不为空
-        if (StrUtil.isNotBlank(json)){
-            //3. 有数据且不为空,存在直接返回
-            return JSONUtil.toBean(json, type);
+        if (bytes != null && bytes.length > 0){
+            //3. 有数据且不为空,写入本地缓存后返回
+            R r = codec.decode(bytes, type);
+            localCache.put(key, r);
+            return r;
         }
         //4. 判断是否为空值,解决缓存穿透问题
         //即key = null的情况
-        if (json != null){
+        if (bytes != null){
+            localCache.put(key, NULL_VALUE);
             return null;
         }
         //5. 不存在根据id查询数据库
@@ -65,59 +281,352 @@ public class CacheClient {
         //6. 不存在返回错误
         if (r == null){
             //将空值写入redis,解决缓存穿透问题
-            stringRedisTemplate.opsForValue().set(key, "",CACHE_NULL_TTL, TimeUnit.MINUTES);
+            byteRedisTemplate.opsForValue().set(key, EMPTY, CACHE_NULL_TTL, TimeUnit.MINUTES);
+            localCache.put(key, NULL_VALUE);
             //返回错误信息
             return null;
         }
-        //7.存在写入redis
+        //7.存在写入redis和本地缓存
         this.set(key, r, time, unit);
+        localCache.put(key, r);
         //8. 返回
         return r;
     }
 
+    //批量查询缓存,每一级只访问一次: 本地缓存 -> Redis MGET -> 数据库批量查询 -> pipeline写回Redis
+    //返回的map按ids的顺序排列,不存在的id不包含在内
+    public <R, ID> Map<ID, R> queryBatchWithPassThrough(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                                        Function<Collection<ID>, Map<ID, R>> dbFallback, Long time, TimeUnit unit) {
+        Map<ID, R> found = new HashMap<>(ids.size());
+        //1. 从本地缓存中查询
+        List<ID> redisIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            Object local = localCache.getIfPresent(keyPrefix + id);
+            if (local == null) {
+                //布隆过滤器判断不存在的id不再查询
+                if (mightExist(keyPrefix, id)) {
+                    redisIds.add(id);
+                }
+            } else if (local != NULL_VALUE) {
+                found.put(id, type.cast(local));
+            }
+        }
+        if (!redisIds.isEmpty()) {
+            //2. MGET从Redis中查询
+            List<String> keys = redisIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+            List<byte[]> values = byteRedisTemplate.opsForValue().multiGet(keys);
+            List<ID> missIds = new ArrayList<>();
+            for (int i = 0; i < redisIds.size(); i++) {
+                byte[] bytes = values == null ? null : values.get(i);
+                if (bytes != null && bytes.length > 0) {
+                    R r = codec.decode(bytes, type);
+                    localCache.put(keys.get(i), r);
+                    found.put(redisIds.get(i), r);
+                } else if (bytes != null) {
+                    //空值,解决缓存穿透问题
+                    localCache.put(keys.get(i), NULL_VALUE);
+                } else {
+                    missIds.add(redisIds.get(i));
+                }
+            }
+            //3. 未命中的id一次查询数据库
+            if (!missIds.isEmpty()) {
+                Map<ID, R> loaded = dbFallback.apply(missIds);
+                //4. pipeline写回Redis,不存在的id写入空值
+                byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (ID id : missIds) {
+                        String key = keyPrefix + id;
+                        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                        R r = loaded.get(id);
+                        if (r == null) {
+                            connection.setEx(rawKey, TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL), EMPTY);
+                            localCache.put(key, NULL_VALUE);
+                        } else {
+                            connection.setEx(rawKey, unit.toSeconds(time), codec.encode(r));
+                            localCache.put(key, r);
+                            found.put(id, r);
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+        //5. 按传入的顺序返回
+        Map<ID, R> result = new LinkedHashMap<>(found.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.put(id, r);
+            }
+        }
+        return result;
+    }
+
+    //互斥锁方式解决缓存击穿问题
+    //本节点同一个key只有一个线程重建,其他线程等待同一个future;其他节点持有锁时等待重建完成的通知,不轮询Redis
+    //等待超过mutexWaitMillis后返回旧数据,没有旧数据时由本节点的重建线程查询一次数据库
+    //等待的线程最多再等一个mutexWaitMillis,重建线程仍未完成或失败时抛出异常,不会无限等待
+    public <R, ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        //0. 记录访问次数,本地缓存已能承接热点key,这里只统计不使用热点缓存
+        hotKeyDetector.record(key);
+        //0.1 从本地缓存中查询
+        Object local = localCache.getIfPresent(key);
+        if (local != null){
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
+        //0.2 布隆过滤器判断不存在,直接返回
+        if (!mightExist(keyPrefix, id)){
+            return null;
+        }
+        //1. 从Redis中查询缓存
+        Object cached = getFromRedis(key, type);
+        if (cached != null){
+            return cached == NULL_VALUE ? null : type.cast(cached);
+        }
+        //2. 本节点已经有线程在重建,等待它的结果
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> loading = mutexLoads.putIfAbsent(key, future);
+        if (loading != null){
+            //2.1 等待超时先返回旧数据,没有旧数据时再等待一次重建线程查询数据库的结果,不再各自查询数据库
+            Object r = await(loading, key);
+            if (r == null){
+                r = staleCache.getIfPresent(key);
+            }
+            if (r == null){
+                r = await(loading, key);
+            }
+            if (r == null){
+                throw new IllegalStateException("缓存重建超时, key: " + key);
+            }
+            return unwrap(r, type);
+        }
+        //3. 由当前线程重建,其他节点重建超时时返回旧数据,没有旧数据时由当前线程查询一次数据库,结果交给所有等待的线程
+        try {
+            Object r = loadWithMutex(key, type, () -> dbFallback.apply(id), time, unit);
+            if (r == null){
+                R fallback = fallback(key, type, () -> dbFallback.apply(id));
+                r = fallback == null ? NULL_VALUE : fallback;
+            }
+            future.complete(r);
+            return unwrap(r, type);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            mutexLoads.remove(key, future);
+        }
+    }
+
+    //获取互斥锁后查询数据库重建,获取失败时等待持有锁的节点重建完成,超时返回null
+    private <R> Object loadWithMutex(String key, Class<R> type, Supplier<R> loader, Long time, TimeUnit unit) {
+        String lockKey = LOCK_KEY_PREFIX + key;
+        //1. 先登记等待通知,避免获取锁失败后才登记而错过通知
+        CompletableFuture<Void> rebuilt = remoteRebuilds.computeIfAbsent(key, k -> new CompletableFuture<>());
+        if (!tryLock(lockKey)){
+            //2. 其他节点正在重建,等待通知后再查一次Redis
+            await(rebuilt, key);
+            remoteRebuilds.remove(key, rebuilt);
+            return getFromRedis(key, type);
+        }
+        remoteRebuilds.remove(key, rebuilt);
+        try {
+            //3. double check,获取锁之前可能已经重建完成
+            Object cached = getFromRedis(key, type);
+            if (cached != null){
+                return cached;
+            }
+            //4. 查询数据库并写入Redis
+            R r = loader.get();
+            if (r == null){
+                byteRedisTemplate.opsForValue().set(key, EMPTY, CACHE_NULL_TTL, TimeUnit.MINUTES);
+                localCache.put(key, NULL_VALUE);
+            } else {
+                this.set(key, r, time, unit);
+                localCache.put(key, r);
+                staleCache.put(key, r);
+            }
+            //5. 通知其他节点重建完成
+            stringRedisTemplate.convertAndSend(CACHE_REBUILT_CHANNEL, key);
+            return r == null ? NULL_VALUE : r;
+        } finally {
+            unLock(lockKey);
+        }
+    }
+
+    //查询Redis,命中时写入本地缓存,空值返回NULL_VALUE,未命中返回null
+    private <R> Object getFromRedis(String key, Class<R> type) {
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+        if (bytes == null){
+            return null;
+        }
+        if (bytes.length == 0){
+            localCache.put(key, NULL_VALUE);
+            return NULL_VALUE;
+        }
+        R r = codec.decode(bytes, type);
+        localCache.put(key, r);
+        staleCache.put(key, r);
+        return r;
+    }
+
+    //有限时间等待,超时或失败返回null
+    private <T> T await(CompletableFuture<T> future, String key) {
+        try {
+            return future.get(mutexWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("等待缓存重建超时, key: {}", key);
+        } catch (ExecutionException e) {
+            log.error("等待缓存重建失败, key: {}", key, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    private static <R> R unwrap(Object r, Class<R> type) {
+        return r == NULL_VALUE ? null : type.cast(r);
+    }
+
+    //重建超时的兜底: 返回旧数据,没有旧数据时直接查询数据库
+    private <R> R fallback(String key, Class<R> type, Supplier<R> loader) {
+        Object stale = staleCache.getIfPresent(key);
+        if (stale != null){
+            return type.cast(stale);
+        }
+        return loader.get();
+    }
+
+    //逻辑过期方式解决缓存击穿问题
+    //除了过期后重建,还会按上次重建耗时概率性地提前重建(XFetch),重建越慢、越接近过期,提前重建的概率越大
     public <R, ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return queryWithHotKey(keyPrefix + id, type, () -> logicalExpire(keyPrefix, id, type, dbFallback, time, unit));
+    }
+
+    private <R, ID> R logicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
+        //0. 布隆过滤器判断不存在,直接返回
+        if (!mightExist(keyPrefix, id)){
+            return null;
+        }
         //1. 从Redis中查询缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
         //2. 判断是否命中
-        if (StrUtil.isBlank(json)){
+        if (bytes == null || bytes.length == 0){
             //3. 未命中直接返回null
             return null;
         }
-        //4.命中,需要把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        JSONObject data = (JSONObject) redisData.getData();
-        R r = JSONUtil.toBean(data,type);
+        //4.命中,需要反序列化为对象
+        RedisData redisData = codec.decodeLogical(bytes, type);
+        R r = type.cast(redisData.getData());
         LocalDateTime expireTime = redisData.getExpireTime();
-        //5. 判断是否过期
-        if (expireTime.isAfter(LocalDateTime.now())){
-            //5.1 未过期,返回店铺数据
+        //5. 判断是否需要重建: 已过期,或者命中了提前重建
+        if (!shouldRefresh(expireTime, redisData.getDelta())){
+            //5.1 不需要重建,直接返回
             return r;
         }
-        //6. 已过期,重建缓存
-        //6.1 获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        //6.2判断是否获取锁成功
-        if (isLock){
-            //TODO:再次检查是否逻辑超时
-            //获取锁成功,开启独立线程,实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+        //6. 重建缓存,返回旧数据
+        rebuildAsync(key, expireTime, type, () -> dbFallback.apply(id), time, unit);
+        return r;
+    }
+
+    //记录访问次数,热点key优先从热点缓存中查询,未命中时查询后写入热点缓存
+    //只用于逻辑过期方式,它没有本地缓存,热点key每次都要查询Redis
+    //热点缓存的过期时间很短,过期后重新查询一次Redis,保证数据最终一致
+    private <R> R queryWithHotKey(String key, Class<R> type, Supplier<R> query) {
+        boolean hot = hotKeyDetector.record(key);
+        Object cached = hotCache.getIfPresent(key);
+        if (cached != null){
+            return unwrap(cached, type);
+        }
+        R r = query.get();
+        if (hot){
+            hotCache.put(key, r == null ? NULL_VALUE : r);
+        }
+        return r;
+    }
+
+    //当前的热点key及窗口内估算的访问次数
+    public Map<String, Object> getHotKeys() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("hotKeys", hotKeyDetector.getHotKeys());
+        result.put("hotCacheSize", hotCache.estimatedSize());
+        result.put("hotCacheHitCount", hotCache.stats().hitCount());
+        return result;
+    }
+
+    //XFetch: now - delta * beta * ln(random) >= expireTime 时重建
+    private boolean shouldRefresh(LocalDateTime expireTime, Long delta) {
+        long now = System.currentTimeMillis();
+        long expireMillis = expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        if (expireMillis <= now) {
+            return true;
+        }
+        if (delta == null || delta <= 0) {
+            return false;
+        }
+        double gap = -delta * refreshBeta * Math.log(ThreadLocalRandom.current().nextDouble());
+        return now + gap >= expireMillis;
+    }
+
+    //异步重建缓存,同一个key在本节点只有一个重建任务,节点之间通过互斥锁保证只有一个重建
+    private <R> void rebuildAsync(String key, LocalDateTime seenExpireTime, Class<R> type, Supplier<R> loader, Long time, TimeUnit unit) {
+        //1. 本节点已经在重建,直接返回
+        if (!rebuilding.add(key)) {
+            return;
+        }
+        //2. 获取互斥锁,失败说明其他节点正在重建
+        String lockKey = LOCK_KEY_PREFIX + key;
+        if (!tryLock(lockKey)) {
+            rebuilding.remove(key);
+            return;
+        }
+        try {
+            //3. 开启独立线程,实现缓存重建
+            cacheRebuildExecutor.execute(() -> {
                 try {
-                    //查询数据库
-                    R r1 = dbFallback.apply(id);
-                    //写入redis
-                    this.setWithLogicalExpire(key,r1, time, unit);
+                    //3.1 再次检查,其他节点可能已经重建过了
+                    byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+                    if (bytes != null && bytes.length > 0) {
+                        RedisData current = codec.decodeLogical(bytes, type);
+                        if (current.getExpireTime().isAfter(seenExpireTime)) {
+                            return;
+                        }
+                    }
+                    //3.2 查询数据库,记录重建耗时
+                    long begin = System.currentTimeMillis();
+                    R r1 = loader.get();
+                    long delta = System.currentTimeMillis() - begin;
+                    //3.3 写入redis
+                    this.setWithLogicalExpire(key, r1, time, unit, delta);
                 } catch (Exception e){
-                    throw new RuntimeException(e);
+                    log.error("重建缓存失败, key: {}", key, e);
                 } finally {
                     //释放锁
                     unLock(lockKey);
+                    rebuilding.remove(key);
                 }
             });
+        } catch (RejectedExecutionException e) {
+            //线程池已满,放弃本次重建,继续返回旧数据
+            log.warn("重建缓存线程池已满, key: {}", key);
+            unLock(lockKey);
+            rebuilding.remove(key);
         }
-        //获取锁失败,返回过期的商铺信息
-        return r;
+    }
+
+    //缓存运行状态
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        CacheStats localStats = localCache.stats();
+        stats.put("localSize", localCache.estimatedSize());
+        stats.put("localHitRate", localStats.hitRate());
+        stats.put("localEvictionCount", localStats.evictionCount());
+        stats.put("rebuildInFlight", rebuilding.size());
+        stats.put("mutexLoading", mutexLoads.size());
+        stats.put("staleSize", staleCache.estimatedSize());
+        stats.put("rebuildExecutor", cacheRebuildExecutor.getStats());
+        return stats;
     }
 
     //获取锁,用于互斥锁方式解决缓存击穿
@@ -0,0 +1,23 @@
+package com.hmdp.utils;
+
+/*
+* 缓存对象的序列化方式,CacheClient通过它读写Redis中的byte[]
+* */
+public interface CacheCodec {
+    /*
+    * 序列化缓存对象
+    * */
+    byte[] encode(Object value);
+    /*
+    * 反序列化为指定类型
+    * */
+    <R> R decode(byte[] bytes, Class<R> type);
+    /*
+    * 序列化带有逻辑过期时间的缓存
+    * */
+    byte[] encodeLogical(RedisData redisData);
+    /*
+    * 反序列化带有逻辑过期时间的缓存,返回的RedisData中data已经是指定类型
+    * */
+    <R> RedisData decodeLogical(byte[] bytes, Class<R> type);
+}
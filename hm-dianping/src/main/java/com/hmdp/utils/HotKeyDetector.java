@@ -0,0 +1,160 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+* 热点key探测
+* 按采样率记录访问到Count-Min Sketch,滑动窗口由多个时间片的sketch组成,过期的时间片在下次写入时清零
+* 窗口内估算访问次数达到阈值的key标记为热点,超过一个窗口没有达到阈值则不再是热点
+* */
+@Component
+public class HotKeyDetector {
+
+    //sketch的行数,即哈希函数个数
+    private static final int DEPTH = 4;
+    //sketch的列数,2的幂
+    private static final int WIDTH = 2048;
+    //滑动窗口的时间片个数
+    private static final int SLOTS = 5;
+    //最多记录的热点key个数
+    private static final int MAX_HOT_KEYS = 1000;
+
+    //每个时间片一个sketch,按行展开为一维数组
+    private final AtomicIntegerArray[] sketches = new AtomicIntegerArray[SLOTS];
+    //每个时间片当前对应的时间段序号
+    private final AtomicLongArray slotEpochs = new AtomicLongArray(SLOTS);
+    private final long slotMillis;
+    private final long windowMillis;
+    private final double sampleRate;
+    //窗口内访问次数达到该值的key为热点
+    private final long threshold;
+    //热点key -> 最近一次达到阈值时的状态
+    private final ConcurrentHashMap<String, HotKey> hotKeys = new ConcurrentHashMap<>();
+
+    public HotKeyDetector(@Value("${hmdp.cache.hot.window-seconds:10}") long windowSeconds,
+                          @Value("${hmdp.cache.hot.threshold:500}") long threshold,
+                          @Value("${hmdp.cache.hot.sample-rate:0.1}") double sampleRate) {
+        this.windowMillis = windowSeconds * 1000;
+        this.slotMillis = Math.max(1, windowMillis / SLOTS);
+        this.threshold = threshold;
+        this.sampleRate = sampleRate;
+        for (int i = 0; i < SLOTS; i++) {
+            sketches[i] = new AtomicIntegerArray(DEPTH * WIDTH);
+            slotEpochs.set(i, -1);
+        }
+    }
+
+    //记录一次访问,返回key当前是否为热点
+    public boolean record(String key) {
+        long now = System.currentTimeMillis();
+        //1. 未被采样,只判断是否为热点
+        if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return isHot(key, now);
+        }
+        //2. 写入当前时间片
+        long epoch = now / slotMillis;
+        AtomicIntegerArray sketch = currentSketch(epoch);
+        int h1 = key.hashCode();
+        int h2 = spread(h1);
+        for (int i = 0; i < DEPTH; i++) {
+            sketch.incrementAndGet(i * WIDTH + ((h1 + i * h2) & (WIDTH - 1)));
+        }
+        //3. 估算窗口内的访问次数,按采样率还原
+        long count = (long) (estimate(h1, h2, epoch) / sampleRate);
+        if (count >= threshold) {
+            HotKey hotKey = hotKeys.get(key);
+            if (hotKey != null) {
+                hotKey.count = count;
+                hotKey.lastMillis = now;
+            } else if (hotKeys.size() < MAX_HOT_KEYS) {
+                hotKeys.put(key, new HotKey(count, now));
+            }
+            return true;
+        }
+        return isHot(key, now);
+    }
+
+    private boolean isHot(String key, long now) {
+        HotKey hotKey = hotKeys.get(key);
+        if (hotKey == null) {
+            return false;
+        }
+        if (now - hotKey.lastMillis > windowMillis) {
+            hotKeys.remove(key, hotKey);
+            return false;
+        }
+        return true;
+    }
+
+    //时间片过期时清零后复用
+    private AtomicIntegerArray currentSketch(long epoch) {
+        int slot = (int) (epoch % SLOTS);
+        if (slotEpochs.get(slot) != epoch) {
+            synchronized (sketches[slot]) {
+                if (slotEpochs.get(slot) != epoch) {
+                    AtomicIntegerArray sketch = sketches[slot];
+                    for (int i = 0; i < sketch.length(); i++) {
+                        sketch.set(i, 0);
+                    }
+                    slotEpochs.set(slot, epoch);
+                }
+            }
+        }
+        return sketches[slot];
+    }
+
+    //每一行把窗口内各时间片的计数相加,取各行的最小值
+    private int estimate(int h1, int h2, long epoch) {
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = i * WIDTH + ((h1 + i * h2) & (WIDTH - 1));
+            int sum = 0;
+            for (int slot = 0; slot < SLOTS; slot++) {
+                if (epoch - slotEpochs.get(slot) < SLOTS) {
+                    sum += sketches[slot].get(index);
+                }
+            }
+            min = Math.min(min, sum);
+        }
+        return min;
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        //保证为奇数,各行的位置不会重合
+        return h | 1;
+    }
+
+    //当前的热点key及窗口内估算的访问次数,按访问次数降序
+    public Map<String, Long> getHotKeys() {
+        long now = System.currentTimeMillis();
+        hotKeys.entrySet().removeIf(e -> now - e.getValue().lastMillis > windowMillis);
+        Map<String, Long> result = new LinkedHashMap<>();
+        hotKeys.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue().count, a.getValue().count))
+                .forEach(e -> result.put(e.getKey(), e.getValue().count));
+        return result;
+    }
+
+    private static final class HotKey {
+        private volatile long count;
+        private volatile long lastMillis;
+
+        private HotKey(long count, long lastMillis) {
+            this.count = count;
+            this.lastMillis = lastMillis;
+        }
+    }
+}
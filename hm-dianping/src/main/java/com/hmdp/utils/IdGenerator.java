@@ -0,0 +1,10 @@
+package com.hmdp.utils;
+
+public interface IdGenerator {
+    /*
+    * 生成全局唯一id
+    * @param keyPrefix 业务前缀,不需要区分业务的实现可以忽略
+    * @return 全局唯一id
+    * */
+    long nextId(String keyPrefix);
+}
@@ -0,0 +1,44 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+* 有界线程池,队列满时拒绝任务并计数,通过getStats()查看运行状态
+* */
+public class MonitoredThreadPoolExecutor extends ThreadPoolExecutor {
+
+    private final String name;
+    private final LongAdder rejectedCount = new LongAdder();
+
+    public MonitoredThreadPoolExecutor(String name, int corePoolSize, int maximumPoolSize, int queueCapacity) {
+        super(corePoolSize, maximumPoolSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                ThreadFactoryBuilder.create().setNamePrefix(name + "-").build());
+        this.name = name;
+        setRejectedExecutionHandler((r, executor) -> {
+            rejectedCount.increment();
+            throw new RejectedExecutionException(name + "线程池已满");
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("name", name);
+        stats.put("poolSize", getPoolSize());
+        stats.put("activeCount", getActiveCount());
+        stats.put("largestPoolSize", getLargestPoolSize());
+        stats.put("queueSize", getQueue().size());
+        stats.put("taskCount", getTaskCount());
+        stats.put("completedTaskCount", getCompletedTaskCount());
+        stats.put("rejectedCount", rejectedCount.sum());
+        return stats;
+    }
+}
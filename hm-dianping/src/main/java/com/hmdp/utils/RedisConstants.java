@@ -11,12 +11,42 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final Long CACHE_BLOG_COMMENTS_TTL = 30L;
+    public static final String CACHE_BLOG_COMMENTS_KEY = "cache:blog:comments:";
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_REBUILT_CHANNEL = "cache:rebuilt";
+    public static final String BLOOM_ADD_CHANNEL = "bloom:add";
+    public static final String SHOP_CHANGED_CHANNEL = "shop:changed";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
+    public static final String ID_WORKER_KEY = "id:worker:";
+    public static final Long ID_WORKER_TTL = 60L;
+
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_TIME_KEY = "seckill:time:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:sold-out";
+    public static final String SECKILL_INVALIDATE_CHANNEL = "seckill:invalidate";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKED_DELTA_KEY = "blog:liked-delta";
+    public static final String BLOG_LIKED_FLUSHING_KEY = "blog:liked-delta:flushing";
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String BLOG_COMMENTS_DELTA_KEY = "blog:comments-delta";
+    public static final String BLOG_COMMENTS_FLUSHING_KEY = "blog:comments-delta:flushing";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_BIG_AUTHORS_KEY = "feed:big-authors";
+    public static final String FOLLOWS_KEY = "follows:";
+    public static final Long FOLLOWS_TTL = 60L;
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
 }
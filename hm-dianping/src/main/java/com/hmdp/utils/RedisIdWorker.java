@@ -1,43 +1,173 @@
 package com.hmdp.utils;
 
-import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /*
 * 基于Redis的全局ID生成器
+* id = 时间戳 << 32 | 当天序列号
+* 2056年之前时间戳小于2^30,id小于2^62,与第62位为1的SnowflakeIdWorker的id不会重复
+* 号段模式下每次用INCRBY预取一段序列号,本地原子递增分配,剩余不足时异步预取下一段
 * */
+@Slf4j
 @Component
-public class RedisIdWorker {
+public class RedisIdWorker implements IdGenerator {
 
     //开始时间戳2022-1-1 00:00:00
     private static final long BEGIN_TIMESTAMP = 1640995200L;
     //序列号的位数
     private static final int COUNT_BITS = 32;
+    private static final long SECONDS_PER_DAY = 86400L;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    //号段大小,小于等于0时每个id都INCR一次
+    @Value("${hmdp.id.segment-size:0}")
+    private int segmentSize;
+    //号段剩余比例低于该值时预取下一段
+    private static final double PREFETCH_RATIO = 0.2;
+    //业务前缀 -> 号段
+    private final ConcurrentHashMap<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+    //异步预取号段的线程池
+    private static final ExecutorService SEGMENT_LOADER = Executors.newSingleThreadExecutor();
+
+    @PreDestroy
+    private void destroy() {
+        SEGMENT_LOADER.shutdown();
+    }
+
     //生成全局id
+    @Override
     public long nextId(String keyPrefix){
+        if (segmentSize > 0) {
+            return buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new).nextId();
+        }
         //1. 生成时间戳
         LocalDateTime now = LocalDateTime.now();
         long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
         long timeStamp = nowSecond - BEGIN_TIMESTAMP;
         //2. 生成序列号
         //2.1 获取当前日期,精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        String date = now.format(DATE_FORMATTER);
         //2.2 自增长(每天一个key)
         long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
         //3. 拼接并返回
         return timeStamp << COUNT_BITS | count;
     }
 
+    //当前本地时间的秒数,与LocalDateTime.now().toEpochSecond(ZoneOffset.UTC)一致,保证两种模式生成的id兼容
+    private static long localSecond() {
+        long millis = System.currentTimeMillis();
+        return millis / 1000 + ZoneId.systemDefault().getRules().getOffset(Instant.ofEpochMilli(millis)).getTotalSeconds();
+    }
+
+    //号段,[cursor, max]内的序列号可以直接分配
+    private static final class Segment {
+        private final long day;
+        private final AtomicLong cursor;
+        private final long max;
+        //分配到该序列号时触发预取
+        private final long prefetchAt;
+
+        private Segment(long day, long min, long max, long prefetchAt) {
+            this.day = day;
+            this.cursor = new AtomicLong(min);
+            this.max = max;
+            this.prefetchAt = prefetchAt;
+        }
+    }
+
+    //每个业务前缀的双号段缓冲,当前号段用完后切换到预取好的下一段
+    private final class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private Segment next;
+
+        private SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        private long nextId() {
+            long second = localSecond();
+            long day = Math.floorDiv(second, SECONDS_PER_DAY);
+            while (true) {
+                Segment segment = current;
+                //跨天时其他线程已经切换到新的一天,使用新一天的开始时间,避免和前一天的序列号重复
+                if (segment != null && segment.day > day) {
+                    day = segment.day;
+                    second = day * SECONDS_PER_DAY;
+                }
+                if (segment != null && segment.day == day) {
+                    long count = segment.cursor.getAndIncrement();
+                    if (count <= segment.max) {
+                        if (count == segment.prefetchAt) {
+                            prefetch(segment);
+                        }
+                        return (second - BEGIN_TIMESTAMP) << COUNT_BITS | count;
+                    }
+                }
+                switchSegment(segment, day);
+            }
+        }
+
+        //当前号段用完或跨天,切换到下一段,没有预取好的号段时同步获取
+        private synchronized void switchSegment(Segment old, long day) {
+            if (current != old) {
+                //其他线程已经切换过了
+                return;
+            }
+            Segment segment = next;
+            next = null;
+            if (segment == null || segment.day != day) {
+                segment = load(day);
+            }
+            current = segment;
+        }
+
+        private void prefetch(Segment segment) {
+            SEGMENT_LOADER.submit(() -> {
+                try {
+                    Segment loaded = load(segment.day);
+                    synchronized (this) {
+                        if (next == null && current == segment) {
+                            next = loaded;
+                        }
+                    }
+                } catch (Exception e) {
+                    //预取失败时,号段用完后会同步获取
+                    log.error("预取号段失败, keyPrefix: {}", keyPrefix, e);
+                }
+            });
+        }
+
+        //INCRBY预留一段序列号
+        private Segment load(long day) {
+            String date = LocalDate.ofEpochDay(day).format(DATE_FORMATTER);
+            Long max = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, segmentSize);
+            if (max == null) {
+                throw new IllegalStateException("获取号段失败, keyPrefix: " + keyPrefix);
+            }
+            long min = max - segmentSize + 1;
+            return new Segment(day, min, max, max - (long) (segmentSize * PREFETCH_RATIO));
+        }
+    }
+
     public static void main(String[] args) {
         LocalDateTime time = LocalDateTime.of(2022, 1, 1, 0, 0, 0);
         long second = time.toEpochSecond(ZoneOffset.UTC);
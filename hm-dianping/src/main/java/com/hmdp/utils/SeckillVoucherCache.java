@@ -0,0 +1,173 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.entity.SeckillVoucher;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/*
+* 秒杀券的本地缓存
+* 售罄标记: 库存耗尽后本地直接拒绝请求,通过Redis发布订阅通知其他节点,短时间后过期,库存恢复后重新查询Redis
+* 秒杀时间: 创建后不会变化,缓存在本地,变化时主动失效并通知其他节点
+* */
+@Slf4j
+@Component
+public class SeckillVoucherCache implements MessageListener {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private CacheClient cacheClient;
+
+    //售罄标记的有效期,补充库存或订单取消后最多这么久恢复售卖
+    private static final long SOLD_OUT_TTL_SECONDS = 5;
+    //已售罄的优惠券id
+    private final Cache<Long, Boolean> soldOut = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(SOLD_OUT_TTL_SECONDS, TimeUnit.SECONDS)
+            .build();
+    //优惠券id -> 秒杀时间
+    private final Cache<Long, TimeWindow> timeWindows = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+    //不存在的优惠券也缓存起来,避免反复查询
+    private static final TimeWindow NONE = new TimeWindow(0, 0);
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this,
+                Arrays.asList(new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL), new ChannelTopic(SECKILL_INVALIDATE_CHANNEL)));
+    }
+
+    //判断优惠券是否已售罄,只读本地内存
+    public boolean isSoldOut(Long voucherId) {
+        return soldOut.getIfPresent(voucherId) != null;
+    }
+
+    //标记优惠券已售罄,并广播给其他节点
+    public void markSoldOut(Long voucherId) {
+        //本节点已经标记过,说明已经广播过了
+        if (soldOut.asMap().putIfAbsent(voucherId, Boolean.TRUE) != null) {
+            return;
+        }
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId.toString());
+    }
+
+    //查询秒杀时间,本地未命中时依次查询Redis和数据库,不存在返回null
+    public TimeWindow getTimeWindow(Long voucherId, Function<Long, SeckillVoucher> dbFallback) {
+        //布隆过滤器判断不存在,直接返回,不占用本地缓存
+        if (!cacheClient.mightExist(SECKILL_TIME_KEY, voucherId)) {
+            return null;
+        }
+        TimeWindow window = timeWindows.get(voucherId, id -> loadTimeWindow(id, dbFallback));
+        return window == NONE ? null : window;
+    }
+
+    private TimeWindow loadTimeWindow(Long voucherId, Function<Long, SeckillVoucher> dbFallback) {
+        //1. 从Redis中查询
+        List<Object> times = stringRedisTemplate.opsForHash()
+                .multiGet(SECKILL_TIME_KEY + voucherId, Arrays.asList("begin", "end"));
+        if (times.get(0) != null && times.get(1) != null) {
+            return new TimeWindow(Long.parseLong((String) times.get(0)), Long.parseLong((String) times.get(1)));
+        }
+        //2. 从数据库中查询,并写入Redis
+        SeckillVoucher voucher = dbFallback.apply(voucherId);
+        if (voucher == null) {
+            return NONE;
+        }
+        writeRedis(voucher);
+        return TimeWindow.of(voucher);
+    }
+
+    //预热秒杀券到Redis和本地缓存,并清除本地的售罄标记
+    public void warmUp(SeckillVoucher voucher) {
+        writeRedis(voucher);
+        timeWindows.put(voucher.getVoucherId(), TimeWindow.of(voucher));
+        soldOut.invalidate(voucher.getVoucherId());
+    }
+
+    //新增秒杀券后调用: 写入Redis,通知所有节点删除缓存的"不存在"和售罄标记,下次请求从Redis加载
+    //本节点也会收到通知,所以这里不写入本地缓存
+    public void addVoucher(SeckillVoucher voucher) {
+        writeRedis(voucher);
+        invalidate(voucher.getVoucherId());
+    }
+
+    //秒杀时间或库存变化时调用,失效本地缓存和售罄标记并通知其他节点
+    public void invalidate(Long voucherId) {
+        timeWindows.invalidate(voucherId);
+        soldOut.invalidate(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_INVALIDATE_CHANNEL, voucherId.toString());
+    }
+
+    //库存只在不存在时写入,避免覆盖Redis中正在扣减的库存
+    private void writeRedis(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        stringRedisTemplate.opsForValue().setIfAbsent(SECKILL_STOCK_KEY + voucherId, voucher.getStock().toString());
+        TimeWindow window = TimeWindow.of(voucher);
+        Map<String, String> timeMap = new HashMap<>(2);
+        timeMap.put("begin", String.valueOf(window.getBegin()));
+        timeMap.put("end", String.valueOf(window.getEnd()));
+        stringRedisTemplate.opsForHash().putAll(SECKILL_TIME_KEY + voucherId, timeMap);
+    }
+
+    //接收其他节点的售罄和失效通知
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        Long voucherId;
+        try {
+            voucherId = Long.valueOf(body);
+        } catch (NumberFormatException e) {
+            log.error("秒杀券通知格式错误, channel: {}, body: {}", channel, body);
+            return;
+        }
+        if (SECKILL_SOLD_OUT_CHANNEL.equals(channel)) {
+            soldOut.put(voucherId, Boolean.TRUE);
+        } else {
+            timeWindows.invalidate(voucherId);
+            soldOut.invalidate(voucherId);
+        }
+    }
+
+    //秒杀时间,秒级时间戳
+    @Getter
+    public static final class TimeWindow {
+        private final long begin;
+        private final long end;
+
+        private TimeWindow(long begin, long end) {
+            this.begin = begin;
+            this.end = end;
+        }
+
+        private static TimeWindow of(SeckillVoucher voucher) {
+            return new TimeWindow(voucher.getBeginTime().atZone(ZoneId.systemDefault()).toEpochSecond(),
+                    voucher.getEndTime().atZone(ZoneId.systemDefault()).toEpochSecond());
+        }
+    }
+}
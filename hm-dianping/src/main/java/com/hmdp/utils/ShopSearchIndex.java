@@ -0,0 +1,385 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.event.ShopChangedEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/*
+* 店铺名称、商圈、地址的本地倒排索引,代替LIKE '%name%'全表扫描
+* 中文没有分词,按单字和相邻两字切分: 单字查询用单字的倒排表,多字查询用所有相邻两字的倒排表求交集
+* 名称的前一个字和前两个字额外索引为前缀词,输入前缀时名称以此开头的店铺排在前面
+* 店铺修改由ShopChangedEvent增量更新(包括其他节点广播来的修改),另外定期从数据库全量重建,补上丢失的通知
+* */
+@Component
+public class ShopSearchIndex {
+
+    //各字段的权重
+    private static final int NAME_WEIGHT = 3;
+    private static final int AREA_WEIGHT = 2;
+    private static final int ADDRESS_WEIGHT = 1;
+    //名称前缀命中时额外加的分
+    private static final int PREFIX_WEIGHT = 10;
+    private static final String PREFIX_MARK = "^";
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    //词 -> 倒排表
+    private HashMap<String, Posting> postings = new HashMap<>();
+    //全量重建期间收到的修改,重建完成后补到新索引上,不在重建时为null
+    private List<ShopChangedEvent> pendingChanges;
+
+    public void add(Shop shop) {
+        Map<String, Integer> terms = terms(shop);
+        lock.writeLock().lock();
+        try {
+            put(postings, shop.getId(), terms);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Shop shop) {
+        Map<String, Integer> terms = terms(shop);
+        lock.writeLock().lock();
+        try {
+            delete(postings, shop.getId(), terms);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //店铺新增或修改后,先删除原来的词,再写入新的词
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onShopChanged(ShopChangedEvent event) {
+        lock.writeLock().lock();
+        try {
+            apply(postings, event);
+            if (pendingChanges != null) {
+                pendingChanges.add(event);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+    * 全量重建索引: 在锁外构建新的倒排表,完成后替换旧的,重建期间查询仍使用旧索引
+    * 重建期间收到的修改在替换前补到新索引上,避免被较早读取的数据覆盖
+    * @param loader 把所有店铺依次交给传入的Consumer
+    * */
+    public synchronized void rebuild(Consumer<Consumer<Shop>> loader) {
+        lock.writeLock().lock();
+        try {
+            pendingChanges = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        HashMap<String, Posting> fresh = new HashMap<>();
+        try {
+            loader.accept(shop -> put(fresh, shop.getId(), terms(shop)));
+            lock.writeLock().lock();
+            try {
+                for (ShopChangedEvent event : pendingChanges) {
+                    apply(fresh, event);
+                }
+                postings = fresh;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            lock.writeLock().lock();
+            try {
+                pendingChanges = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /*
+    * 搜索店铺,按相关度降序、id升序排列后分页
+    * @return 当前页的店铺id
+    * */
+    public List<Long> search(String keyword, int from, int size) {
+        List<String> queryTerms = queryTerms(keyword);
+        if (queryTerms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String normalized = normalize(keyword);
+        String prefix = PREFIX_MARK + normalized.substring(0, Math.min(2, normalized.length()));
+        lock.readLock().lock();
+        try {
+            //1. 找出所有词的倒排表,有一个词不存在则没有结果
+            List<Posting> lists = new ArrayList<>(queryTerms.size());
+            for (String term : queryTerms) {
+                Posting posting = postings.get(term);
+                if (posting == null) {
+                    return Collections.emptyList();
+                }
+                lists.add(posting);
+            }
+            //2. 从最短的倒排表开始求交集,累加权重
+            lists.sort((a, b) -> Integer.compare(a.size, b.size));
+            Posting first = lists.get(0);
+            long[] ids = Arrays.copyOf(first.ids, first.size);
+            int[] scores = Arrays.copyOf(first.weights, first.size);
+            int n = first.size;
+            for (int i = 1; i < lists.size() && n > 0; i++) {
+                Posting posting = lists.get(i);
+                int m = 0;
+                for (int j = 0; j < n; j++) {
+                    int index = posting.indexOf(ids[j]);
+                    if (index >= 0) {
+                        ids[m] = ids[j];
+                        scores[m] = scores[j] + posting.weights[index];
+                        m++;
+                    }
+                }
+                n = m;
+            }
+            //3. 名称以输入开头的加分
+            Posting prefixPosting = postings.get(prefix);
+            if (prefixPosting != null) {
+                for (int j = 0; j < n; j++) {
+                    if (prefixPosting.indexOf(ids[j]) >= 0) {
+                        scores[j] += PREFIX_WEIGHT;
+                    }
+                }
+            }
+            //4. 只保留前from+size个,不对全部结果排序
+            if (from >= n || size <= 0) {
+                return Collections.emptyList();
+            }
+            TopHits hits = new TopHits(Math.min(n, from + size));
+            for (int j = 0; j < n; j++) {
+                hits.offer(ids[j], scores[j]);
+            }
+            return hits.page(from);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void apply(Map<String, Posting> postings, ShopChangedEvent event) {
+        if (event.getOld() != null) {
+            delete(postings, event.getOld().getId(), terms(event.getOld()));
+        }
+        if (event.getShop() != null) {
+            put(postings, event.getShop().getId(), terms(event.getShop()));
+        }
+    }
+
+    private static void put(Map<String, Posting> postings, Long id, Map<String, Integer> terms) {
+        terms.forEach((term, weight) -> postings.computeIfAbsent(term, k -> new Posting()).put(id, weight));
+    }
+
+    private static void delete(Map<String, Posting> postings, Long id, Map<String, Integer> terms) {
+        for (String term : terms.keySet()) {
+            Posting posting = postings.get(term);
+            if (posting != null && posting.remove(id) && posting.size == 0) {
+                postings.remove(term);
+            }
+        }
+    }
+
+    //店铺的所有词及权重
+    private static Map<String, Integer> terms(Shop shop) {
+        Map<String, Integer> terms = new HashMap<>();
+        addTerms(terms, shop.getName(), NAME_WEIGHT);
+        addTerms(terms, shop.getArea(), AREA_WEIGHT);
+        addTerms(terms, shop.getAddress(), ADDRESS_WEIGHT);
+        String name = normalize(shop.getName());
+        if (!name.isEmpty()) {
+            terms.put(PREFIX_MARK + name.substring(0, 1), 0);
+            if (name.length() > 1) {
+                terms.put(PREFIX_MARK + name.substring(0, 2), 0);
+            }
+        }
+        return terms;
+    }
+
+    //按非文字字符切分后,每一段切分为单字和相邻两字
+    private static void addTerms(Map<String, Integer> terms, String text, int weight) {
+        for (String segment : segments(text)) {
+            for (int i = 0; i < segment.length(); i++) {
+                terms.merge(segment.substring(i, i + 1), weight, Integer::sum);
+                if (i + 1 < segment.length()) {
+                    terms.merge(segment.substring(i, i + 2), weight, Integer::sum);
+                }
+            }
+        }
+    }
+
+    //查询词: 单字的段用单字,多字的段用所有相邻两字
+    private static List<String> queryTerms(String keyword) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String segment : segments(keyword)) {
+            if (segment.length() == 1) {
+                terms.add(segment);
+            }
+            for (int i = 0; i + 1 < segment.length(); i++) {
+                terms.add(segment.substring(i, i + 2));
+            }
+        }
+        return new ArrayList<>(terms);
+    }
+
+    private static List<String> segments(String text) {
+        List<String> segments = new ArrayList<>();
+        if (StrUtil.isBlank(text)) {
+            return segments;
+        }
+        String s = text.toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= s.length(); i++) {
+            boolean letter = i < s.length() && Character.isLetterOrDigit(s.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                segments.add(s.substring(start, i));
+                start = -1;
+            }
+        }
+        return segments;
+    }
+
+    //去掉非文字字符并转为小写
+    private static String normalize(String text) {
+        return String.join("", segments(text));
+    }
+
+    //保留相关度最高的limit个结果,用小顶堆实现,堆顶为最差的结果
+    private static final class TopHits {
+        private final long[] ids;
+        private final int[] scores;
+        private int size;
+
+        private TopHits(int limit) {
+            this.ids = new long[limit];
+            this.scores = new int[limit];
+        }
+
+        //相关度降序,相同时id升序
+        private static boolean better(int score1, long id1, int score2, long id2) {
+            return score1 != score2 ? score1 > score2 : id1 < id2;
+        }
+
+        private void offer(long id, int score) {
+            if (size < ids.length) {
+                //上浮
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (!better(scores[parent], ids[parent], score, id)) {
+                        break;
+                    }
+                    ids[i] = ids[parent];
+                    scores[i] = scores[parent];
+                    i = parent;
+                }
+                ids[i] = id;
+                scores[i] = score;
+            } else if (better(score, id, scores[0], ids[0])) {
+                siftDown(0, id, score, size);
+            }
+        }
+
+        //把元素放到位置i,下沉
+        private void siftDown(int i, long id, int score, int n) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= n) {
+                    break;
+                }
+                if (child + 1 < n && better(scores[child], ids[child], scores[child + 1], ids[child + 1])) {
+                    child++;
+                }
+                if (!better(score, id, scores[child], ids[child])) {
+                    break;
+                }
+                ids[i] = ids[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            ids[i] = id;
+            scores[i] = score;
+        }
+
+        //依次取出堆顶,得到按相关度降序的结果,返回from之后的部分
+        private List<Long> page(int from) {
+            int n = size;
+            long[] sorted = new long[n];
+            for (int end = n - 1; end >= 0; end--) {
+                sorted[end] = ids[0];
+                siftDown(0, ids[end], scores[end], end);
+            }
+            List<Long> result = new ArrayList<>(Math.max(0, n - from));
+            for (int i = from; i < n; i++) {
+                result.add(sorted[i]);
+            }
+            return result;
+        }
+    }
+
+    //一个词的倒排表,按店铺id升序保存店铺id和权重
+    private static final class Posting {
+        private long[] ids = new long[4];
+        private int[] weights = new int[4];
+        private int size;
+
+        private void put(long id, int weight) {
+            //启动时按id顺序加载,直接追加
+            int index = size > 0 && ids[size - 1] < id ? -(size + 1) : indexOf(id);
+            if (index >= 0) {
+                weights[index] = weight;
+                return;
+            }
+            index = -(index + 1);
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            System.arraycopy(weights, index, weights, index + 1, size - index);
+            ids[index] = id;
+            weights[index] = weight;
+            size++;
+        }
+
+        private boolean remove(long id) {
+            int index = indexOf(id);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            System.arraycopy(weights, index + 1, weights, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+        private int indexOf(long id) {
+            return Arrays.binarySearch(ids, 0, size, id);
+        }
+    }
+}
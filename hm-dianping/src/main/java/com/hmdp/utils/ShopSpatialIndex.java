@@ -0,0 +1,332 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.event.ShopChangedEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+* 店铺坐标的本地空间索引,Redis不可用时查询附近店铺的兜底
+* 每个店铺类型一个分区,分区内按经纬度划分为固定大小的网格,网格内用基本类型数组保存店铺id和坐标
+* 半径查询只扫描外接矩形覆盖的网格,k近邻查询从中心网格按圈向外扩展
+* */
+@Component
+public class ShopSpatialIndex {
+
+    //网格大小,度,约1公里
+    private static final double CELL_DEGREES = 0.01;
+    //与Redis GEO使用相同的地球半径,距离结果一致
+    private static final double EARTH_RADIUS_METERS = 6372797.560856;
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * EARTH_RADIUS_METERS;
+
+    //店铺类型 -> 分区
+    private final ConcurrentHashMap<Long, Partition> partitions = new ConcurrentHashMap<>();
+
+    //添加或更新店铺坐标,已存在时覆盖
+    public void add(Long typeId, long id, double x, double y) {
+        partitions.computeIfAbsent(typeId, k -> new Partition()).add(id, x, y);
+    }
+
+    public void remove(Long typeId, long id, double x, double y) {
+        Partition partition = partitions.get(typeId);
+        if (partition != null) {
+            partition.remove(id, x, y);
+        }
+    }
+
+    //店铺新增或修改后,先删除原来的坐标,再写入新的坐标
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onShopChanged(ShopChangedEvent event) {
+        Shop old = event.getOld();
+        if (old != null && old.getTypeId() != null && old.getX() != null && old.getY() != null) {
+            remove(old.getTypeId(), old.getId(), old.getX(), old.getY());
+        }
+        Shop shop = event.getShop();
+        if (shop != null && shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+            add(shop.getTypeId(), shop.getId(), shop.getX(), shop.getY());
+        }
+    }
+
+    /*
+    * 查询半径内的店铺,按距离由近到远排序,最多返回limit个
+    * @return 店铺id -> 距离(米)
+    * */
+    public Map<Long, Double> radius(Long typeId, double x, double y, double radiusMeters, int limit) {
+        Partition partition = partitions.get(typeId);
+        if (partition == null || limit <= 0) {
+            return new LinkedHashMap<>();
+        }
+        Hits hits = new Hits(limit);
+        double dy = radiusMeters / METERS_PER_DEGREE;
+        double dx = dy / Math.max(Math.cos(Math.toRadians(y)), 1e-6);
+        partition.lock.readLock().lock();
+        try {
+            for (long cx = cell(x - dx); cx <= cell(x + dx); cx++) {
+                for (long cy = cell(y - dy); cy <= cell(y + dy); cy++) {
+                    partition.collect(cellKey(cx, cy), x, y, radiusMeters, hits);
+                }
+            }
+        } finally {
+            partition.lock.readLock().unlock();
+        }
+        return hits.toMap();
+    }
+
+    /*
+    * 查询距离最近的k个店铺,按距离由近到远排序
+    * @return 店铺id -> 距离(米)
+    * */
+    public Map<Long, Double> nearest(Long typeId, double x, double y, int k) {
+        Partition partition = partitions.get(typeId);
+        if (partition == null || k <= 0) {
+            return new LinkedHashMap<>();
+        }
+        Hits hits = new Hits(k);
+        long centerX = cell(x);
+        long centerY = cell(y);
+        //一圈网格在纬度和经度方向上的最小跨度,用于判断外圈是否还可能有更近的店铺
+        double ringMeters = CELL_DEGREES * METERS_PER_DEGREE * Math.min(1, Math.cos(Math.toRadians(y)));
+        partition.lock.readLock().lock();
+        try {
+            long maxRing = partition.maxRing(centerX, centerY);
+            for (long ring = 0; ring <= maxRing; ring++) {
+                //已经找到k个,并且外圈的最近距离也大于第k个,结束
+                if (hits.isFull() && (ring - 1) * ringMeters > hits.maxDistance()) {
+                    break;
+                }
+                for (long cx = centerX - ring; cx <= centerX + ring; cx++) {
+                    for (long cy = centerY - ring; cy <= centerY + ring; cy++) {
+                        //只扫描这一圈的网格
+                        if (Math.abs(cx - centerX) == ring || Math.abs(cy - centerY) == ring) {
+                            partition.collect(cellKey(cx, cy), x, y, Double.MAX_VALUE, hits);
+                        }
+                    }
+                }
+            }
+        } finally {
+            partition.lock.readLock().unlock();
+        }
+        return hits.toMap();
+    }
+
+    //店铺总数
+    public long size() {
+        long size = 0;
+        for (Partition partition : partitions.values()) {
+            size += partition.size;
+        }
+        return size;
+    }
+
+    public void clear() {
+        partitions.clear();
+    }
+
+    private static long cell(double degrees) {
+        return (long) Math.floor(degrees / CELL_DEGREES);
+    }
+
+    private static long cellKey(long cx, long cy) {
+        return cx << 32 | (cy & 0xffffffffL);
+    }
+
+    //haversine公式计算球面距离
+    static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    //一个店铺类型的网格,写入加写锁,查询加读锁
+    private static final class Partition {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final HashMap<Long, Cell> cells = new HashMap<>();
+        private long size;
+        //已有网格的范围
+        private long minX = Long.MAX_VALUE, maxX = Long.MIN_VALUE, minY = Long.MAX_VALUE, maxY = Long.MIN_VALUE;
+
+        private void add(long id, double x, double y) {
+            long cx = cell(x);
+            long cy = cell(y);
+            lock.writeLock().lock();
+            try {
+                if (cells.computeIfAbsent(cellKey(cx, cy), k -> new Cell()).put(id, x, y)) {
+                    size++;
+                }
+                minX = Math.min(minX, cx);
+                maxX = Math.max(maxX, cx);
+                minY = Math.min(minY, cy);
+                maxY = Math.max(maxY, cy);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void remove(long id, double x, double y) {
+            lock.writeLock().lock();
+            try {
+                long key = cellKey(cell(x), cell(y));
+                Cell cell = cells.get(key);
+                if (cell != null && cell.remove(id)) {
+                    size--;
+                    if (cell.size == 0) {
+                        cells.remove(key);
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void collect(long key, double x, double y, double radiusMeters, Hits hits) {
+            Cell cell = cells.get(key);
+            if (cell == null) {
+                return;
+            }
+            for (int i = 0; i < cell.size; i++) {
+                double d = distance(x, y, cell.xs[i], cell.ys[i]);
+                if (d <= radiusMeters) {
+                    hits.offer(cell.ids[i], d);
+                }
+            }
+        }
+
+        //从中心网格扩展到覆盖所有网格需要的圈数
+        private long maxRing(long cx, long cy) {
+            if (cells.isEmpty()) {
+                return -1;
+            }
+            return Math.max(Math.max(cx - minX, maxX - cx), Math.max(cy - minY, maxY - cy));
+        }
+    }
+
+    //一个网格内的店铺,id和坐标分别保存在基本类型数组中
+    private static final class Cell {
+        private long[] ids = new long[4];
+        private double[] xs = new double[4];
+        private double[] ys = new double[4];
+        private int size;
+
+        //返回是否为新增
+        private boolean put(long id, double x, double y) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    xs[i] = x;
+                    ys[i] = y;
+                    return false;
+                }
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                xs = Arrays.copyOf(xs, size * 2);
+                ys = Arrays.copyOf(ys, size * 2);
+            }
+            ids[size] = id;
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+            return true;
+        }
+
+        private boolean remove(long id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    //用最后一个元素覆盖
+                    size--;
+                    ids[i] = ids[size];
+                    xs[i] = xs[size];
+                    ys[i] = ys[size];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    //保留距离最近的limit个结果,用大顶堆实现
+    private static final class Hits {
+        private final long[] ids;
+        private final double[] distances;
+        private int size;
+
+        private Hits(int limit) {
+            this.ids = new long[limit];
+            this.distances = new double[limit];
+        }
+
+        private boolean isFull() {
+            return size == ids.length;
+        }
+
+        private double maxDistance() {
+            return distances[0];
+        }
+
+        private void offer(long id, double distance) {
+            if (size < ids.length) {
+                //上浮
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (distances[parent] >= distance) {
+                        break;
+                    }
+                    ids[i] = ids[parent];
+                    distances[i] = distances[parent];
+                    i = parent;
+                }
+                ids[i] = id;
+                distances[i] = distance;
+            } else if (distance < distances[0]) {
+                siftDown(0, id, distance, size);
+            }
+        }
+
+        //把元素放到位置i,下沉
+        private void siftDown(int i, long id, double distance, int n) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= n) {
+                    break;
+                }
+                if (child + 1 < n && distances[child + 1] > distances[child]) {
+                    child++;
+                }
+                if (distances[child] <= distance) {
+                    break;
+                }
+                ids[i] = ids[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            ids[i] = id;
+            distances[i] = distance;
+        }
+
+        //依次取出堆顶,按距离升序返回
+        private Map<Long, Double> toMap() {
+            int n = size;
+            long[] sortedIds = new long[n];
+            double[] sortedDistances = new double[n];
+            for (int end = n - 1; end >= 0; end--) {
+                sortedIds[end] = ids[0];
+                sortedDistances[end] = distances[0];
+                siftDown(0, ids[end], distances[end], end);
+            }
+            Map<Long, Double> result = new LinkedHashMap<>(n * 2);
+            for (int i = 0; i < n; i++) {
+                result.put(sortedIds[i], sortedDistances[i]);
+            }
+            return result;
+        }
+    }
+}
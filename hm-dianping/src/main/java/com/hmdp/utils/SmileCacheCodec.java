@@ -0,0 +1,59 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+
+/*
+* 基于Jackson Smile的二进制序列化方式,体积比JSON字符串小,序列化和反序列化也更快
+* */
+public class SmileCacheCodec implements CacheCodec {
+
+    private final ObjectMapper mapper = new ObjectMapper(new SmileFactory())
+            .registerModule(new JavaTimeModule())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Override
+    public byte[] encode(Object value) {
+        try {
+            return mapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        try {
+            return mapper.readValue(bytes, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        return encode(redisData);
+    }
+
+    @Override
+    public <R> RedisData decodeLogical(byte[] bytes, Class<R> type) {
+        try {
+            JsonNode node = mapper.readTree(bytes);
+            RedisData redisData = new RedisData();
+            redisData.setExpireTime(mapper.treeToValue(node.get("expireTime"), LocalDateTime.class));
+            redisData.setData(mapper.treeToValue(node.get("data"), type));
+            JsonNode delta = node.get("delta");
+            redisData.setDelta(delta == null || delta.isNull() ? null : delta.asLong());
+            return redisData;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
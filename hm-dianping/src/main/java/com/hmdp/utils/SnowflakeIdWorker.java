@@ -0,0 +1,143 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_KEY;
+import static com.hmdp.utils.RedisConstants.ID_WORKER_TTL;
+
+/*
+* 雪花算法id生成器,不依赖Redis生成id
+* id = 1 << 62 | 毫秒时间戳(40位) << 22 | worker id(10位) << 12 | 毫秒内序列号(12位)
+* worker id启动时通过Redis租用,后台定时续约,Redis短暂不可用不影响生成id
+* 第62位固定为1: RedisIdWorker的秒级时间戳在2056年之前小于2^30,生成的id小于2^62,两种实现的id不会重复,可以切换
+* */
+@Slf4j
+public class SnowflakeIdWorker implements IdGenerator {
+
+    //开始时间戳2022-1-1 00:00:00,毫秒
+    private static final long BEGIN_TIMESTAMP = 1640995200000L;
+    //时间戳位数,可以使用到2056年
+    private static final int TIMESTAMP_BITS = 40;
+    private static final long MAX_TIMESTAMP = (1L << TIMESTAMP_BITS) - 1;
+    //与RedisIdWorker区分的标记位
+    private static final long FLAG = 1L << 62;
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_WORKER_ID = (1L << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    //允许等待的最大时钟回拨,毫秒
+    private static final long MAX_BACKWARD_MS = 5;
+    //持有者标识
+    private static final String OWNER = UUID.randomUUID().toString(true);
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ScheduledExecutorService renewExecutor = Executors.newSingleThreadScheduledExecutor();
+    private volatile long workerId = -1;
+    private long lastTimestamp = -1;
+    private long sequence;
+
+    public SnowflakeIdWorker(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    //租用worker id,并定时续约
+    public void init() {
+        workerId = leaseWorkerId();
+        long period = ID_WORKER_TTL / 3;
+        renewExecutor.scheduleAtFixedRate(this::renew, period, period, TimeUnit.SECONDS);
+        log.info("雪花算法worker id: {}", workerId);
+    }
+
+    //租约不主动删除,过期后自动释放,避免误删其他节点重新租用的worker id
+    public void destroy() {
+        renewExecutor.shutdown();
+    }
+
+    //从随机位置开始尝试,SET NX抢占第一个空闲的worker id
+    private long leaseWorkerId() {
+        long start = ThreadLocalRandom.current().nextLong(MAX_WORKER_ID + 1);
+        for (long i = 0; i <= MAX_WORKER_ID; i++) {
+            long id = (start + i) & MAX_WORKER_ID;
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + id, OWNER, ID_WORKER_TTL, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                return id;
+            }
+        }
+        throw new IllegalStateException("没有空闲的worker id");
+    }
+
+    private void renew() {
+        try {
+            Long result = stringRedisTemplate.execute(RENEW_SCRIPT,
+                    Collections.singletonList(ID_WORKER_KEY + workerId), OWNER, ID_WORKER_TTL.toString());
+            if (result != null && result == 0) {
+                //租约已被其他节点占用,重新租用,避免id重复
+                log.error("worker id租约丢失, workerId: {}", workerId);
+                workerId = leaseWorkerId();
+                log.info("重新租用worker id: {}", workerId);
+            }
+        } catch (Exception e) {
+            //Redis不可用时,其他节点也无法抢占,继续使用当前worker id
+            log.error("worker id续约失败, workerId: {}", workerId, e);
+        }
+    }
+
+    @Override
+    public synchronized long nextId(String keyPrefix) {
+        long timestamp = System.currentTimeMillis();
+        //1. 时钟回拨
+        if (timestamp < lastTimestamp) {
+            long offset = lastTimestamp - timestamp;
+            if (offset > MAX_BACKWARD_MS) {
+                throw new IllegalStateException("时钟回拨" + offset + "毫秒,拒绝生成id");
+            }
+            //1.1 回拨较小,等待时钟追上
+            timestamp = waitUntil(lastTimestamp);
+        }
+        //2. 同一毫秒内序列号自增,用完则等待下一毫秒
+        if (timestamp == lastTimestamp) {
+            sequence = (sequence + 1) & SEQUENCE_MASK;
+            if (sequence == 0) {
+                timestamp = waitUntil(lastTimestamp + 1);
+            }
+        } else {
+            sequence = 0;
+        }
+        lastTimestamp = timestamp;
+        //3. 时间戳超出位数会占用标记位,与RedisIdWorker的id重复
+        if (timestamp - BEGIN_TIMESTAMP > MAX_TIMESTAMP) {
+            throw new IllegalStateException("时间戳超出" + TIMESTAMP_BITS + "位,拒绝生成id");
+        }
+        //4. 拼接并返回
+        return FLAG
+                | (timestamp - BEGIN_TIMESTAMP) << (WORKER_BITS + SEQUENCE_BITS)
+                | workerId << SEQUENCE_BITS
+                | sequence;
+    }
+
+    private static long waitUntil(long target) {
+        long timestamp = System.currentTimeMillis();
+        while (timestamp < target) {
+            Thread.yield();
+            timestamp = System.currentTimeMillis();
+        }
+        return timestamp;
+    }
+}
@@ -0,0 +1,32 @@
+-- 点赞或取消点赞,点赞记录和点赞数的变化量在一个脚本中原子更新
+-- 笔记的点赞用户key(zset, score为点赞时间)
+-- local likedKey = KEYS[1]
+-- 待写入数据库的点赞数变化量key(hash, field为笔记id)
+-- local deltaKey = KEYS[2]
+-- 热门笔记排行key(zset, score为点赞数)
+-- local hotKey = KEYS[3]
+-- 用户id
+-- local userId = ARGV[1]
+-- 当前时间(毫秒)
+-- local now = ARGV[2]
+-- 笔记id
+-- local blogId = ARGV[3]
+
+-- 排行中的笔记才更新排行分数,避免不存在的笔记进入排行
+local ranked = redis.call('zscore', KEYS[3], ARGV[3])
+-- 1. 已点赞,取消点赞
+if (redis.call('zscore', KEYS[1], ARGV[1])) then
+    redis.call('zrem', KEYS[1], ARGV[1])
+    redis.call('hincrby', KEYS[2], ARGV[3], -1)
+    if (ranked) then
+        redis.call('zincrby', KEYS[3], -1, ARGV[3])
+    end
+    return 0
+end
+-- 2. 未点赞,点赞
+redis.call('zadd', KEYS[1], ARGV[2], ARGV[1])
+redis.call('hincrby', KEYS[2], ARGV[3], 1)
+if (ranked) then
+    redis.call('zincrby', KEYS[3], 1, ARGV[3])
+end
+return 1
@@ -0,0 +1,11 @@
+-- 续约的key
+-- local key = KEYS[1]
+-- 持有者标识
+-- local owner = ARGV[1]
+-- 续约时间(秒)
+-- local ttl = ARGV[2]
+-- 只有持有者才能续约
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('expire', KEYS[1], ARGV[2])
+end
+return 0
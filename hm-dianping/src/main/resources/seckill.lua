@@ -0,0 +1,55 @@
+-- 秒杀资格判断,库存/时间/一人一单的校验与扣减在一个脚本中原子完成
+-- 库存key
+-- local stockKey = KEYS[1]
+-- 秒杀时间key(hash, begin/end为秒级时间戳)
+-- local timeKey = KEYS[2]
+-- 已下单用户key(set)
+-- local orderKey = KEYS[3]
+-- 订单消息队列key(stream)
+-- local streamKey = KEYS[4]
+-- 用户id
+-- local userId = ARGV[1]
+-- 当前时间(秒)
+-- local now = tonumber(ARGV[2])
+-- 订单id
+-- local orderId = ARGV[3]
+-- 优惠券id
+-- local voucherId = ARGV[4]
+
+-- 1. 判断秒杀时间
+local times = redis.call('hmget', KEYS[2], 'begin', 'end')
+if (not times[1] or not times[2]) then
+    -- 1.1 未预热,不是秒杀券
+    return 5
+end
+local now = tonumber(ARGV[2])
+if (tonumber(times[1]) > now) then
+    -- 1.2 秒杀尚未开始
+    return 3
+end
+if (tonumber(times[2]) < now) then
+    -- 1.3 秒杀已经结束
+    return 4
+end
+-- 2. 判断库存是否充足 get stockKey
+local stock = tonumber(redis.call('get', KEYS[1]))
+if (not stock) then
+    -- 2.1 库存未预热,不能当作售罄
+    return 6
+end
+if (stock <= 0) then
+    -- 2.2 库存不足
+    return 1
+end
+-- 3. 判断用户是否下单 sismember orderKey userId
+if (redis.call('sismember', KEYS[3], ARGV[1]) == 1) then
+    -- 3.1 重复下单
+    return 2
+end
+-- 4. 扣库存 incrby stockKey -1
+redis.call('incrby', KEYS[1], -1)
+-- 5. 下单(保存用户) sadd orderKey userId
+redis.call('sadd', KEYS[3], ARGV[1])
+-- 6. 发送订单到消息队列 xadd stream.orders * k1 v1 k2 v2 ...
+redis.call('xadd', KEYS[4], '*', 'userId', ARGV[1], 'voucherId', ARGV[4], 'id', ARGV[3])
+return 0
@@ -1,12 +1,12 @@
 -- 锁的key
--- local key = KEY[1]
+-- local key = KEYS[1]
 -- 当前线程标识
 -- local threadId = ARGV[1]
 -- 获取锁中的线程标识 get key
-local id = redis.call('get', KEY[1])
+local id = redis.call('get', KEYS[1])
 -- 比较线程标识和所种标识是否相等
 if(id == ARGV[1]) then
 	-- 释放锁
-	return redis.call('del',KEY[1])
+	return redis.call('del',KEYS[1])
 end
 return 0
\ No newline at end of file
@@ -1,14 +1,49 @@
 package com.hmdp;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.event.ShopChangedEvent;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.service.impl.ShopServiceImpl;
+import com.hmdp.utils.BloomFilter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.ShopSearchIndex;
+import com.hmdp.utils.ShopSpatialIndex;
+import com.hmdp.utils.SmileCacheCodec;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Metrics;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
 
 @SpringBootTest
 class HmDianPingApplicationTests {
@@ -19,6 +54,18 @@ class HmDianPingApplicationTests {
     @Resource
     private RedisIdWorker redisIdWorker;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
     //线程池
     private ExecutorService executorService = Executors.newFixedThreadPool(500);
 
@@ -46,4 +93,316 @@ class HmDianPingApplicationTests {
         System.out.println("time = " + (end - begin));
     }
 
+    //对比每个id INCR一次和号段模式的生成速度
+    @Test
+    void testRedisIdWorkerSegment() throws InterruptedException {
+        int threads = 300;
+        int idsPerThread = 1000;
+        for (int segmentSize : new int[]{0, 1000}) {
+            ReflectionTestUtils.setField(redisIdWorker, "segmentSize", segmentSize);
+            CountDownLatch latch = new CountDownLatch(threads);
+            Runnable task = () -> {
+                for (int i = 0; i < idsPerThread; i++) {
+                    redisIdWorker.nextId("bench");
+                }
+                latch.countDown();
+            };
+            long begin = System.currentTimeMillis();
+            for (int i = 0; i < threads; i++) {
+                executorService.submit(task);
+            }
+            latch.await();
+            long time = System.currentTimeMillis() - begin;
+            System.out.println("segmentSize = " + segmentSize + ", time = " + time
+                    + ", ids/s = " + (long) threads * idsPerThread * 1000 / Math.max(time, 1));
+        }
+        ReflectionTestUtils.setField(redisIdWorker, "segmentSize", 0);
+    }
+
+    //对比两种缓存序列化方式的体积和耗时
+    @Test
+    void testCacheCodec() {
+        Shop shop = shopService.getById(1L);
+        int rounds = 100000;
+        for (CacheCodec codec : new CacheCodec[]{new JsonCacheCodec(), new SmileCacheCodec()}) {
+            byte[] bytes = codec.encode(shop);
+            //预热
+            for (int i = 0; i < rounds; i++) {
+                codec.decode(codec.encode(shop), Shop.class);
+            }
+            long begin = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                codec.encode(shop);
+            }
+            long encodeNs = (System.nanoTime() - begin) / rounds;
+            begin = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                codec.decode(bytes, Shop.class);
+            }
+            long decodeNs = (System.nanoTime() - begin) / rounds;
+            System.out.println(codec.getClass().getSimpleName() + ": size = " + bytes.length
+                    + " bytes, encode = " + encodeNs + " ns/op, decode = " + decodeNs + " ns/op");
+        }
+    }
+
+    //逻辑过期缓存记录了很大的重建耗时,未过期时也应提前重建
+    @Test
+    void testLogicalExpireEarlyRefresh() throws InterruptedException {
+        Shop shop = shopService.getById(1L);
+        long delta = TimeUnit.HOURS.toMillis(1);
+        //1. 两种序列化方式都能读回重建耗时
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.now().plusMinutes(10));
+        redisData.setDelta(delta);
+        for (CacheCodec codec : new CacheCodec[]{new JsonCacheCodec(), new SmileCacheCodec()}) {
+            RedisData decoded = codec.decodeLogical(codec.encodeLogical(redisData), Shop.class);
+            assert Long.valueOf(delta).equals(decoded.getDelta());
+        }
+        //2. 10分钟后过期,重建耗时1小时,查询时大概率触发提前重建
+        String keyPrefix = "cache:test:early-refresh:";
+        AtomicInteger dbCalls = new AtomicInteger();
+        cacheClient.setWithLogicalExpire(keyPrefix + shop.getId(), shop, 10L, TimeUnit.MINUTES, delta);
+        for (int i = 0; i < 20 && dbCalls.get() == 0; i++) {
+            cacheClient.queryWithLogicalExpire(keyPrefix, shop.getId(), Shop.class, id -> {
+                dbCalls.incrementAndGet();
+                return shopService.getById(id);
+            }, 10L, TimeUnit.MINUTES);
+            Thread.sleep(100);
+        }
+        cacheClient.delete(keyPrefix + shop.getId());
+        assert dbCalls.get() > 0;
+    }
+
+    //热点key缓存失效后,500个线程同时查询,统计查询数据库的次数和p99耗时
+    @Test
+    void testMutexStampede() throws InterruptedException {
+        int threads = 500;
+        Long shopId = 1L;
+        AtomicInteger dbCalls = new AtomicInteger();
+        long[] costs = new long[threads];
+        cacheClient.delete(CACHE_SHOP_KEY + shopId);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            int index = i;
+            executorService.submit(() -> {
+                try {
+                    start.await();
+                    long begin = System.nanoTime();
+                    Shop shop = cacheClient.queryWithMutex(CACHE_SHOP_KEY, shopId, Shop.class, id -> {
+                        dbCalls.incrementAndGet();
+                        //模拟重建延迟
+                        try {
+                            Thread.sleep(100);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return shopService.getById(id);
+                    }, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+                    costs[index] = System.nanoTime() - begin;
+                    assert shop != null;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+        done.await();
+        Arrays.sort(costs);
+        System.out.println("db calls = " + dbCalls.get()
+                + ", p50 = " + costs[threads / 2] / 1000000 + "ms"
+                + ", p99 = " + costs[threads * 99 / 100] / 1000000 + "ms");
+        assert dbCalls.get() == 1;
+    }
+
+    @Test
+    void testHotKeyDetector() {
+        HotKeyDetector detector = new HotKeyDetector(10, 500, 0.1);
+        //1. 1万个key各访问10次,不会成为热点
+        for (int i = 0; i < 10; i++) {
+            for (int id = 0; id < 10000; id++) {
+                detector.record(CACHE_SHOP_KEY + id);
+            }
+        }
+        assert detector.getHotKeys().isEmpty();
+        //2. 单个key访问1万次,成为热点
+        for (int i = 0; i < 10000; i++) {
+            detector.record(CACHE_SHOP_KEY + 1);
+        }
+        System.out.println("hot keys = " + detector.getHotKeys());
+        assert detector.getHotKeys().containsKey(CACHE_SHOP_KEY + 1);
+    }
+
+    //100万个随机分布在杭州附近的店铺,对比本地空间索引和Redis GEO查询附近5公里内最近10个店铺的耗时
+    //数据库按距离排序需要全表计算距离,100万行时无法作为对照,不在此对比
+    @Test
+    void testShopSpatialIndex() {
+        int total = 1000000;
+        int queries = 1000;
+        Random random = new Random(1);
+        double[] xs = new double[total];
+        double[] ys = new double[total];
+        for (int i = 0; i < total; i++) {
+            xs[i] = 120.0 + random.nextDouble() * 0.5;
+            ys[i] = 30.0 + random.nextDouble() * 0.5;
+        }
+        //1. 本地空间索引
+        ShopSpatialIndex index = new ShopSpatialIndex();
+        for (int i = 0; i < total; i++) {
+            index.add(1L, i, xs[i], ys[i]);
+        }
+        long begin = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            Map<Long, Double> nearby = index.radius(1L, xs[i], ys[i], 5000, 10);
+            assert nearby.size() == 10 && nearby.containsKey((long) i);
+        }
+        long local = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            Map<Long, Double> nearest = index.nearest(1L, xs[i], ys[i], 10);
+            assert nearest.keySet().iterator().next() == i;
+        }
+        long knn = System.nanoTime() - begin;
+        //2. Redis GEO
+        String key = "shop:geo:bench";
+        try {
+            List<RedisGeoCommands.GeoLocation<String>> locations = new ArrayList<>(10000);
+            for (int i = 0; i < total; i++) {
+                locations.add(new RedisGeoCommands.GeoLocation<>(String.valueOf(i), new Point(xs[i], ys[i])));
+                if (locations.size() == 10000) {
+                    stringRedisTemplate.opsForGeo().add(key, locations);
+                    locations.clear();
+                }
+            }
+            begin = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().radius(key,
+                        new Circle(new Point(xs[i], ys[i]), new Distance(5000, Metrics.METERS)),
+                        RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(10));
+                assert results != null && results.getContent().size() == 10;
+            }
+            long redis = System.nanoTime() - begin;
+            System.out.println("local radius: " + local / queries / 1000 + "us/op"
+                    + ", local knn: " + knn / queries / 1000 + "us/op"
+                    + ", redis geo: " + redis / queries / 1000 + "us/op");
+        } finally {
+            stringRedisTemplate.delete(key);
+        }
+    }
+
+    @Test
+    void testShopSearchIndex() {
+        ShopSearchIndex index = new ShopSearchIndex();
+        index.add(new Shop().setId(1L).setName("海底捞火锅").setArea("大关").setAddress("上塘路457号"));
+        index.add(new Shop().setId(2L).setName("小龙坎火锅").setArea("拱宸桥/上塘").setAddress("金华路80号"));
+        index.add(new Shop().setId(3L).setName("火锅海底世界").setArea("运河上街").setAddress("台州路2号"));
+        //1. 名称以关键字开头的排在前面
+        assert index.search("海底", 0, 10).equals(Arrays.asList(1L, 3L));
+        assert index.search("火锅", 0, 10).equals(Arrays.asList(3L, 1L, 2L));
+        //2. 商圈和地址也能搜索到,分页
+        assert index.search("上塘", 0, 10).size() == 2;
+        assert index.search("火锅", 1, 1).equals(Arrays.asList(1L));
+        //3. 修改后旧的词不再命中
+        Shop old = new Shop().setId(2L).setName("小龙坎火锅").setArea("拱宸桥/上塘").setAddress("金华路80号");
+        index.remove(old);
+        index.add(new Shop().setId(2L).setName("小龙坎老火锅").setArea("拱宸桥").setAddress("金华路80号"));
+        assert index.search("上塘", 0, 10).equals(Arrays.asList(1L));
+        assert index.search("老火锅", 0, 10).equals(Arrays.asList(2L));
+        //4. 全量重建,读取数据后收到的修改不会被覆盖
+        index.rebuild(consumer -> {
+            consumer.accept(new Shop().setId(1L).setName("海底捞火锅").setArea("大关").setAddress("上塘路457号"));
+            consumer.accept(new Shop().setId(2L).setName("小龙坎老火锅").setArea("拱宸桥").setAddress("金华路80号"));
+            index.onShopChanged(new ShopChangedEvent(this,
+                    new Shop().setId(1L).setName("海底捞").setArea("大关").setAddress("上塘路457号"),
+                    new Shop().setId(1L).setName("海底捞火锅").setArea("大关").setAddress("上塘路457号")));
+        });
+        assert index.search("火锅", 0, 10).equals(Arrays.asList(2L));
+        assert index.search("海底", 0, 10).equals(Arrays.asList(1L));
+        //5. 20万个店铺时的查询耗时
+        Random random = new Random(1);
+        String chars = "海底捞火锅小龙坎烧烤茶餐厅咖啡面馆川菜湘菜粤菜日料西餐甜品奶茶酒吧";
+        for (long id = 100; id < 200000; id++) {
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 6; i++) {
+                name.append(chars.charAt(random.nextInt(chars.length())));
+            }
+            index.add(new Shop().setId(id).setName(name.toString()).setArea("拱宸桥").setAddress("金华路" + id + "号"));
+        }
+        long begin = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            index.search("火锅", 0, 10);
+        }
+        System.out.println("search: " + (System.nanoTime() - begin) / 1000 / 1000 + "us/op");
+    }
+
+    @Test
+    void testBloomFilter() {
+        int n = 1000000;
+        BloomFilter filter = new BloomFilter(n, 0.01);
+        for (long i = 0; i < n; i++) {
+            filter.put(i);
+        }
+        //1. 已插入的id不会误判
+        for (long i = 0; i < n; i++) {
+            assert filter.mightContain(i);
+        }
+        //2. 未插入的id误判率接近fpp
+        int falsePositives = 0;
+        for (long i = n; i < 2L * n; i++) {
+            if (filter.mightContain(i)) {
+                falsePositives++;
+            }
+        }
+        System.out.println("fpp = " + (double) falsePositives / n + ", stats = " + filter.getStats());
+        assert falsePositives < n * 0.02;
+    }
+
+    //对比逐条事务下单和批量下单的写入速度
+    @Test
+    void testVoucherOrderBatchInsert() {
+        int total = 2000;
+        int batchSize = 100;
+        //使用临时的秒杀券,测试结束后删除
+        long voucherId = 900000000L + System.currentTimeMillis() % 100000000L;
+        SeckillVoucher seckillVoucher = new SeckillVoucher()
+                .setVoucherId(voucherId)
+                .setStock(total * 2)
+                .setBeginTime(LocalDateTime.now())
+                .setEndTime(LocalDateTime.now().plusDays(1));
+        seckillVoucherService.save(seckillVoucher);
+        try {
+            //1. 逐条下单
+            long begin = System.currentTimeMillis();
+            for (int i = 0; i < total; i++) {
+                voucherOrderService.createVoucherOrder(newOrder(voucherId, i));
+            }
+            long single = System.currentTimeMillis() - begin;
+            //2. 批量下单
+            begin = System.currentTimeMillis();
+            for (int i = 0; i < total; i += batchSize) {
+                List<VoucherOrder> batch = new ArrayList<>(batchSize);
+                for (int j = 0; j < batchSize; j++) {
+                    batch.add(newOrder(voucherId, total + i + j));
+                }
+                voucherOrderService.createVoucherOrders(batch);
+            }
+            long batched = System.currentTimeMillis() - begin;
+            System.out.println("single: " + total * 1000L / Math.max(single, 1) + " rows/s, time = " + single);
+            System.out.println("batch: " + total * 1000L / Math.max(batched, 1) + " rows/s, time = " + batched);
+        } finally {
+            voucherOrderService.remove(new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId));
+            seckillVoucherService.removeById(voucherId);
+        }
+    }
+
+    private VoucherOrder newOrder(long voucherId, long userId) {
+        return new VoucherOrder()
+                .setId(redisIdWorker.nextId("order"))
+                .setUserId(userId)
+                .setVoucherId(voucherId);
+    }
+
 }